@@ -18,6 +18,8 @@ limitations under the License.
 package com.github.terma.jenkins.githubprcoveragestatus;
 
 import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
 
 public class BuildMasterCoverageRepository implements MasterCoverageRepository {
 
@@ -30,14 +32,23 @@ public class BuildMasterCoverageRepository implements MasterCoverageRepository {
     @Override
     public float get(final String gitHubRepoUrl) {
         if (gitHubRepoUrl == null) return 0;
-        final Float coverage = Configuration.DESCRIPTOR.getCoverageByRepo().get(gitHubRepoUrl);
+        final MasterCoverageStore store = ServiceRegistry.getMasterCoverageStore();
+        final Float coverage = store.get(gitHubRepoUrl);
         if (coverage == null) {
             buildLog.println("Can't find master coverage repository: " + gitHubRepoUrl
-                    + " in stored: " + Configuration.DESCRIPTOR.getCoverageByRepo() + "\n"
+                    + " in stored: " + store.size() + " repositories\n"
                     + "Make sure that you have run build with step: " + MasterCoverageAction.DISPLAY_NAME);
             return 0;
         }
         return coverage;
     }
 
+    @Override
+    public Map<String, Float> getByModule(final String gitHubRepoUrl) {
+        if (gitHubRepoUrl == null) return Collections.emptyMap();
+        final MasterModuleCoverageStore.Modules modules =
+                ServiceRegistry.getMasterModuleCoverageStore().get(gitHubRepoUrl);
+        return modules != null ? modules.getCoverageByModule() : Collections.<String, Float>emptyMap();
+    }
+
 }
@@ -17,10 +17,14 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
-import org.apache.commons.io.FileUtils;
-
-import java.io.File;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * For more info about Clover see:
@@ -30,39 +34,108 @@ import java.io.IOException;
  * https://plugins.jenkins.io/clover/</a>
  * <a href="https://phpunit.de/manual/current/en/logging.html#logging.codecoverage.xml"
  * https://phpunit.de/manual/current/en/logging.html#logging.codecoverage.xml</a>
+ * <p>
+ * Project metrics are placed after all files, so they are taken from the end of report.
+ * If end of report has unexpected structure report is streamed (without building DOM)
+ * and both attributes are taken from first project metrics in one pass.
  */
 class CloverParser implements CoverageReportParser {
 
     private static final String TOTAL_STATEMENTS_XPATH = "/coverage/project/metrics/@statements";
     private static final String COVER_STATEMENTS_XPATH = "/coverage/project/metrics/@coveredstatements";
 
-    private int getByXpath(final String filePath, final String content, final String xpath) {
+    private static final int COVERAGE_DEPTH = 1;
+    private static final int PROJECT_DEPTH = 2;
+    private static final int PROJECT_METRICS_DEPTH = 3;
+
+    private int getValue(final String filePath, final String value, final String xpath) {
         try {
-            return Integer.parseInt(XmlUtils.findInXml(content, xpath));
+            if (value == null) throw new NumberFormatException("No value");
+            return Integer.parseInt(value);
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException(
                     "Strange Clover report!\n" +
                             "File path: " + filePath + "\n" +
                             "Can't extract float value by XPath: " + xpath + "\n" +
-                            "from:\n" + content, e);
+                            "from:\n" + Utils.readReportHead(filePath), e);
         }
     }
 
     @Override
     public float get(final String cloverFilePath) {
-        final String content;
+        return getCounters(cloverFilePath).getCoverage();
+    }
+
+    @Override
+    public CoverageCounters getCounters(final String cloverFilePath) {
+        final String[] metrics;
         try {
-            content = FileUtils.readFileToString(new File(cloverFilePath));
+            final String[] tailMetrics = readTailProjectMetrics(cloverFilePath);
+            metrics = tailMetrics != null ? tailMetrics : readProjectMetrics(cloverFilePath);
         } catch (IOException e) {
             throw new IllegalArgumentException(
                     "Can't read Clover report by path: " + cloverFilePath);
         }
 
-        final float statements = getByXpath(cloverFilePath, content, TOTAL_STATEMENTS_XPATH);
-        final float coveredStatements = getByXpath(cloverFilePath, content, COVER_STATEMENTS_XPATH);
+        final int statements = getValue(cloverFilePath, metrics[0], TOTAL_STATEMENTS_XPATH);
+        final int coveredStatements = getValue(cloverFilePath, metrics[1], COVER_STATEMENTS_XPATH);
 
-        if (statements == 0) return 0;
-        else return coveredStatements / statements;
+        if (statements == 0) return CoverageCounters.of(0, 0);
+        else return new CoverageCounters((float) coveredStatements / statements,
+                coveredStatements, statements - coveredStatements);
+    }
+
+    /**
+     * @return project metrics from the end of report or <code>null</code> if end has unexpected structure
+     * or metrics don't have required attributes
+     */
+    private static String[] readTailProjectMetrics(final String cloverFilePath) throws IOException {
+        final ReportTail tail = ReportTail.read(cloverFilePath);
+        if (!tail.removeEnd("coverage") || !tail.removeEnd("project")) return null;
+        final List<String> elements = tail.removeEmptyElements("metrics");
+        if (elements.isEmpty()) return null;
+
+        final String element = elements.get(elements.size() - 1);
+        final String[] metrics = new String[]{
+                ReportTail.getAttribute(element, "statements"),
+                ReportTail.getAttribute(element, "coveredstatements")};
+        return metrics[0] != null && metrics[1] != null ? metrics : null;
+    }
+
+    /**
+     * @return raw statements and covered statements attributes of project metrics, <code>null</code> if attribute not found
+     */
+    private static String[] readProjectMetrics(final String cloverFilePath) throws IOException {
+        final String[] metrics = new String[2];
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(cloverFilePath))) {
+            final XMLStreamReader reader = XmlUtils.createStreamReader(inputStream);
+            try {
+                int depth = 0;
+                boolean inProject = false;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        final String name = reader.getLocalName();
+                        if (depth == COVERAGE_DEPTH && !"coverage".equals(name)) break;
+                        if (depth == PROJECT_DEPTH) inProject = "project".equals(name);
+                        if (inProject && depth == PROJECT_METRICS_DEPTH && "metrics".equals(name)) {
+                            metrics[0] = reader.getAttributeValue(null, "statements");
+                            metrics[1] = reader.getAttributeValue(null, "coveredstatements");
+                            break;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                        if (depth < PROJECT_DEPTH) inProject = false;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Can't parse Clover report by path: " + cloverFilePath, e);
+        }
+        return metrics;
     }
 
 }
@@ -17,19 +17,37 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
-import org.apache.commons.io.FileUtils;
-
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * <a href="http://cobertura.sourceforge.net/xml/coverage-04.dtd">Coverage DTD</a>
+ * <p>
+ * Total rates are attributes of root <code>coverage</code> element, so only beginning
+ * of report is read, parse cost doesn't depend on report size.
  */
 class CoberturaParser implements CoverageReportParser {
 
-    private static String findFirst(String string, String pattern) {
+    /**
+     * Enough for XML declaration, DOCTYPE, comments and root element
+     */
+    private static final int HEADER_SIZE = 16 * 1024;
+
+    private static final Pattern COVERAGE_ELEMENT_PATTERN = Pattern.compile("(<coverage\\s[^>]*>)");
+    private static final Pattern LINE_RATE_PATTERN = Pattern.compile("line-rate=['\"]([0-9.]+)['\"]");
+    private static final Pattern BRANCH_RATE_PATTERN = Pattern.compile("branch-rate=['\"]([0-9.]+)['\"]");
+    private static final Pattern LINES_VALID_PATTERN = Pattern.compile("lines-valid=['\"]([0-9]+)['\"]");
+    private static final Pattern LINES_COVERED_PATTERN = Pattern.compile("lines-covered=['\"]([0-9]+)['\"]");
+    private static final Pattern BRANCHES_VALID_PATTERN = Pattern.compile("branches-valid=['\"]([0-9]+)['\"]");
+    private static final Pattern BRANCHES_COVERED_PATTERN = Pattern.compile("branches-covered=['\"]([0-9]+)['\"]");
+
+    private static String findFirst(String string, Pattern pattern) {
         String result = findFirstOrNull(string, pattern);
         if (result != null) {
             return result;
@@ -38,8 +56,8 @@ class CoberturaParser implements CoverageReportParser {
         }
     }
 
-    private static String findFirstOrNull(String string, String pattern) {
-        Matcher matcher = Pattern.compile(pattern).matcher(string);
+    private static String findFirstOrNull(String string, Pattern pattern) {
+        Matcher matcher = pattern.matcher(string);
         if (matcher.find()) {
             return matcher.group(1);
         } else {
@@ -47,19 +65,52 @@ class CoberturaParser implements CoverageReportParser {
         }
     }
 
+    private static String readHeader(String coberturaFilePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(coberturaFilePath), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read till header is full or end of file
+            }
+            buffer.flip();
+            // attributes which we need are ASCII, so any multibyte char could be safely read as Latin-1
+            return StandardCharsets.ISO_8859_1.decode(buffer).toString();
+        }
+    }
+
     @Override
     public float get(String coberturaFilePath) {
+        return getCounters(coberturaFilePath).getCoverage();
+    }
+
+    /**
+     * Coverage is based on rates, counters are lines and branches together if report has them
+     * (old Cobertura versions don't).
+     */
+    @Override
+    public CoverageCounters getCounters(String coberturaFilePath) {
         try {
-            String content = FileUtils.readFileToString(new File(coberturaFilePath));
-            float lineRate = Float.parseFloat(findFirst(content, "line-rate=['\"]([0-9.]+)['\"]"));
-            float branchRate = Float.parseFloat(findFirst(content, "branch-rate=['\"]([0-9.]+)['\"]"));
+            String coverageElement = findFirst(readHeader(coberturaFilePath), COVERAGE_ELEMENT_PATTERN);
+            float lineRate = Float.parseFloat(findFirst(coverageElement, LINE_RATE_PATTERN));
+            float branchRate = Float.parseFloat(findFirst(coverageElement, BRANCH_RATE_PATTERN));
+            final float coverage;
             if (lineRate > 0 && branchRate == 0) {
-              return lineRate;
+              coverage = lineRate;
             } else if (lineRate == 0 && branchRate > 0) {
-              return branchRate;
+              coverage = branchRate;
             } else {
-              return lineRate / 2 + branchRate / 2;
+              coverage = lineRate / 2 + branchRate / 2;
+            }
+
+            String linesValid = findFirstOrNull(coverageElement, LINES_VALID_PATTERN);
+            String linesCovered = findFirstOrNull(coverageElement, LINES_COVERED_PATTERN);
+            String branchesValid = findFirstOrNull(coverageElement, BRANCHES_VALID_PATTERN);
+            String branchesCovered = findFirstOrNull(coverageElement, BRANCHES_COVERED_PATTERN);
+            if (linesValid == null || linesCovered == null || branchesValid == null || branchesCovered == null) {
+                return CoverageCounters.ofCoverage(coverage);
             }
+            long covered = Long.parseLong(linesCovered) + Long.parseLong(branchesCovered);
+            long valid = Long.parseLong(linesValid) + Long.parseLong(branchesValid);
+            return new CoverageCounters(coverage, covered, valid - covered);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
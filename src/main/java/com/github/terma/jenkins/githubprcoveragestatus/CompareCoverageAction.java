@@ -29,7 +29,9 @@ import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import jenkins.tasks.SimpleBuildStep;
+import org.kohsuke.github.GHCommitPointer;
 import org.kohsuke.github.GHCommitState;
+import org.kohsuke.github.GHPullRequest;
 import org.kohsuke.github.GHPullRequestCommitDetail;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -41,6 +43,7 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Logger;
 
 /**
  * Build step to publish pull request coverage status message to GitHub pull request.
@@ -60,11 +63,13 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
     public static final String BUILD_LOG_PREFIX = "[GitHub PR Status] ";
 
     private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(CompareCoverageAction.class.getName());
     private String sonarLogin;
     private String sonarPassword;
     private Map<String, String> scmVars;
     private String jacocoCoverageCounter;
     private String publishResultAs;
+    private boolean publishInBackground;
 
     @DataBoundConstructor
     public CompareCoverageAction() {
@@ -79,6 +84,18 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
         this.publishResultAs = publishResultAs;
     }
 
+    public boolean isPublishInBackground() {
+        return publishInBackground;
+    }
+
+    /**
+     * @param publishInBackground - finish build without waiting for GitHub, see {@link PublicationQueue}
+     */
+    @DataBoundSetter
+    public void setPublishInBackground(boolean publishInBackground) {
+        this.publishInBackground = publishInBackground;
+    }
+
     public String getSonarLogin() {
         return sonarLogin;
     }
@@ -147,11 +164,16 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
         buildLog.println(BUILD_LOG_PREFIX + "master coverage: " + masterCoverage);
 
         buildLog.println(BUILD_LOG_PREFIX + "collecting coverage...");
-        final float coverage = ServiceRegistry.getCoverageRepository(settingsRepository.isDisableSimpleCov(),
-                jacocoCoverageCounter).get(workspace);
+        final CoverageSummary summary = ServiceRegistry.getCoverageRepository(settingsRepository.isDisableSimpleCov(),
+                jacocoCoverageCounter, settingsRepository.getParserThreads()).getSummary(workspace);
+        final float coverage = summary.getCoverage();
         buildLog.println(BUILD_LOG_PREFIX + "build coverage: " + coverage);
 
-        final Message message = new Message(coverage, masterCoverage);
+        final ModuleCoverageAction moduleCoverage = new ModuleCoverageAction(summary);
+        build.addOrReplaceAction(moduleCoverage);
+
+        final Message message = new Message(coverage, masterCoverage,
+                moduleCoverage.getCoverageByModule(), masterCoverageRepository.getByModule(gitUrl));
         buildLog.println(BUILD_LOG_PREFIX + message.forConsole());
 
         final String buildUrl = Utils.getBuildUrl(build, listener);
@@ -161,10 +183,17 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
 
         if ("comment".equalsIgnoreCase(publishResultAs)) {
             buildLog.println(BUILD_LOG_PREFIX + "publishing result as comment");
-            publishComment(message, buildUrl, jenkinsUrl, settingsRepository, gitHubRepository, prId, listener);
+            publishComment(message, buildUrl, jenkinsUrl, settingsRepository, gitUrl, gitHubRepository, prId,
+                    false, build, listener);
+        } else if ("updatedComment".equalsIgnoreCase(publishResultAs)) {
+            buildLog.println(BUILD_LOG_PREFIX + "publishing result as updated comment");
+            publishComment(message, buildUrl, jenkinsUrl, settingsRepository, gitUrl, gitHubRepository, prId,
+                    true, build, listener);
         } else {
             buildLog.println(BUILD_LOG_PREFIX + "publishing result as status check");
-            publishStatusCheck(message, gitHubRepository, prId, masterCoverage, coverage, buildUrl, listener);
+            final String headSha = PrIdAndUrlUtils.getHeadSha(scmVars, build, listener);
+            publishStatusCheck(message, gitUrl, gitHubRepository, prId, headSha, masterCoverage, coverage, buildUrl,
+                    build, listener);
         }
     }
 
@@ -173,9 +202,12 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
             String buildUrl,
             String jenkinsUrl,
             SettingsRepository settingsRepository,
-            GHRepository gitHubRepository,
-            int prId,
-            TaskListener listener
+            final String gitUrl,
+            final GHRepository gitHubRepository,
+            final int prId,
+            final boolean update,
+            final Run build,
+            final TaskListener listener
     ) {
         try {
             final String comment = message.forComment(
@@ -184,7 +216,37 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
                     settingsRepository.getYellowThreshold(),
                     settingsRepository.getGreenThreshold(),
                     settingsRepository.isPrivateJenkinsPublicGitHub());
-            ServiceRegistry.getPullRequestRepository().comment(gitHubRepository, prId, comment);
+            publish(gitUrl, new PublicationQueue.Publication() {
+                @Override
+                public String getDescription() {
+                    return "comment to pull request #" + prId;
+                }
+
+                @Override
+                public String getTarget() {
+                    return getPublicationTarget(build, gitUrl, prId) + "#comment";
+                }
+
+                @Override
+                public long getVersion() {
+                    return build.getStartTimeInMillis();
+                }
+
+                @Override
+                public void superseded() {
+                    logSuperseded(getDescription(), build);
+                }
+
+                @Override
+                public void publish() throws IOException {
+                    if (update) {
+                        ServiceRegistry.getPullRequestRepository().updateComment(
+                                gitHubRepository, prId, build.getParent().getFullName(), comment);
+                    } else {
+                        ServiceRegistry.getPullRequestRepository().comment(gitHubRepository, prId, comment);
+                    }
+                }
+            }, listener);
         } catch (Exception ex) {
             PrintWriter pw = listener.error("Couldn't add comment to pull request #" + prId + "!");
             ex.printStackTrace(pw);
@@ -192,30 +254,100 @@ public class CompareCoverageAction extends Recorder implements SimpleBuildStep {
     }
 
     private void publishStatusCheck(
-            Message message,
-            GHRepository gitHubRepository,
-            int prId,
-            float targetCoverage,
-            float coverage,
-            String buildUrl,
-            TaskListener listener
+            final Message message,
+            final String gitUrl,
+            final GHRepository gitHubRepository,
+            final int prId,
+            final String headSha,
+            final float targetCoverage,
+            final float coverage,
+            final String buildUrl,
+            final Run build,
+            final TaskListener listener
     ) {
         try {
-            String text = message.forStatusCheck();
-            List<GHPullRequestCommitDetail> commits = gitHubRepository.getPullRequest(prId).listCommits().asList();
-            ServiceRegistry.getPullRequestRepository().createCommitStatus(
-                    gitHubRepository,
-                    commits.get(commits.size() - 1).getSha(),
-                    coverage < targetCoverage ? GHCommitState.FAILURE : GHCommitState.SUCCESS,
-                    buildUrl,
-                    message.forStatusCheck()
-            );
+            publish(gitUrl, new PublicationQueue.Publication() {
+                @Override
+                public String getDescription() {
+                    return "status check to pull request #" + prId;
+                }
+
+                @Override
+                public String getTarget() {
+                    return getPublicationTarget(build, gitUrl, prId) + "#statusCheck";
+                }
+
+                @Override
+                public long getVersion() {
+                    return build.getStartTimeInMillis();
+                }
+
+                @Override
+                public void superseded() {
+                    logSuperseded(getDescription(), build);
+                }
+
+                @Override
+                public void publish() throws IOException {
+                    ServiceRegistry.getPullRequestRepository().createCommitStatus(
+                            gitHubRepository,
+                            headSha != null ? headSha : getHeadSha(gitHubRepository, prId),
+                            coverage < targetCoverage ? GHCommitState.FAILURE : GHCommitState.SUCCESS,
+                            buildUrl,
+                            message.forStatusCheck()
+                    );
+                }
+            }, listener);
         } catch (Exception e) {
             PrintWriter pw = listener.error("Couldn't add status check to pull request #" + prId + "!");
             e.printStackTrace(pw);
         }
     }
 
+    private void publish(
+            String gitUrl,
+            PublicationQueue.Publication publication,
+            TaskListener listener
+    ) throws Exception {
+        if (publishInBackground) {
+            if (ServiceRegistry.getPublicationQueue().add(gitUrl, publication)) {
+                listener.getLogger().println(BUILD_LOG_PREFIX + publication.getDescription() + " will be published in background");
+            } else {
+                listener.getLogger().println(BUILD_LOG_PREFIX + publication.getDescription() + " skipped, superseded by newer build");
+            }
+        } else {
+            publication.publish();
+        }
+    }
+
+    /**
+     * Publications of different jobs never supersede each other, for example backend and frontend
+     * pipelines of the same pull request.
+     */
+    private static String getPublicationTarget(final Run build, final String gitUrl, final int prId) {
+        return build.getParent().getFullName() + "#" + gitUrl + "#" + prId;
+    }
+
+    /**
+     * Publication is dropped in background when build could be finished, so it's logged to Jenkins log
+     */
+    private static void logSuperseded(final String description, final Run build) {
+        LOGGER.info(description + " of " + build.getFullDisplayName() + " skipped, superseded by newer build");
+    }
+
+    /**
+     * Take head from pull request, list all commits only if head is not available.
+     * Pull request is not taken from cache as head is changed by every push.
+     */
+    private static String getHeadSha(GHRepository gitHubRepository, int prId) throws IOException {
+        final GHPullRequest pullRequest = gitHubRepository.getPullRequest(prId);
+        final GHCommitPointer head = pullRequest.getHead();
+        if (head != null && head.getSha() != null) return head.getSha();
+
+        List<GHPullRequestCommitDetail> commits = pullRequest.listCommits().asList();
+        return commits.get(commits.size() - 1).getSha();
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
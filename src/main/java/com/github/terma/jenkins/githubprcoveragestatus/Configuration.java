@@ -18,17 +18,21 @@ limitations under the License.
 package com.github.terma.jenkins.githubprcoveragestatus;
 
 import hudson.Extension;
+import hudson.util.FormValidation;
 import hudson.util.Secret;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
+import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.verb.POST;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -78,8 +82,20 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
         return DESCRIPTOR.isUseSonarForMasterCoverage();
     }
 
+    public static int getParserThreads() {
+        return DESCRIPTOR.getParserThreads();
+    }
+
+    public static int getMasterCoverageFlushDelay() {
+        return DESCRIPTOR.getMasterCoverageFlushDelay();
+    }
+
     public static void setMasterCoverage(final String repo, final float coverage) {
-        DESCRIPTOR.set(repo, coverage);
+        ServiceRegistry.getMasterCoverageStore().set(repo, coverage);
+    }
+
+    public static void setMasterModuleCoverage(final String repo, final Map<String, CoverageCounters> moduleCounters) {
+        ServiceRegistry.getMasterModuleCoverageStore().set(repo, moduleCounters);
     }
 
     @Override
@@ -92,7 +108,16 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
 
         private static final int DEFAULT_YELLOW_THRESHOLD = 80;
         private static final int DEFAULT_GREEN_THRESHOLD = 90;
-
+        /**
+         * Zero means number of processors on node where reports are parsed
+         */
+        private static final int DEFAULT_PARSER_THREADS = 0;
+        private static final int DEFAULT_MASTER_COVERAGE_FLUSH_DELAY = 5;
+
+        /**
+         * Master coverage stored by previous versions, now it's in {@link MasterCoverageStore}.
+         * Kept to load existing configuration and migrate it.
+         */
         private final Map<String, Float> coverageByRepo = new ConcurrentHashMap<>();
 
         private boolean disableSimpleCov;
@@ -108,6 +133,8 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
 
         private int yellowThreshold = DEFAULT_YELLOW_THRESHOLD;
         private int greenThreshold = DEFAULT_GREEN_THRESHOLD;
+        private int parserThreads = DEFAULT_PARSER_THREADS;
+        private int masterCoverageFlushDelay = DEFAULT_MASTER_COVERAGE_FLUSH_DELAY;
 
         public ConfigurationDescriptor() {
             load();
@@ -118,13 +145,20 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
             return "Coverage status for GitHub Pull Requests";
         }
 
+        /**
+         * @return master coverage stored by previous versions, copy
+         */
         @NonNull
-        public Map<String, Float> getCoverageByRepo() {
-            return coverageByRepo;
+        synchronized Map<String, Float> getLegacyCoverageByRepo() {
+            return new HashMap<>(coverageByRepo);
         }
 
-        public void set(String repo, float coverage) {
-            coverageByRepo.put(repo, coverage);
+        /**
+         * Remove master coverage of previous versions, call only after it's stored by {@link MasterCoverageStore}
+         */
+        synchronized void clearLegacyCoverageByRepo() {
+            if (coverageByRepo.isEmpty()) return;
+            coverageByRepo.clear();
             save();
         }
 
@@ -163,6 +197,16 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
             return disableSimpleCov;
         }
 
+        @Override
+        public int getParserThreads() {
+            return parserThreads;
+        }
+
+        @Override
+        public int getMasterCoverageFlushDelay() {
+            return masterCoverageFlushDelay;
+        }
+
         @Override
         public String getSonarUrl() {
             return sonarUrl;
@@ -197,6 +241,9 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
             privateJenkinsPublicGitHub = BooleanUtils.toBoolean(formData.getString("privateJenkinsPublicGitHub"));
             useSonarForMasterCoverage = BooleanUtils.toBoolean(formData.getString("useSonarForMasterCoverage"));
             disableSimpleCov = BooleanUtils.toBoolean(formData.getString("disableSimpleCov"));
+            parserThreads = Math.max(0, NumberUtils.toInt(formData.getString("parserThreads"), DEFAULT_PARSER_THREADS));
+            masterCoverageFlushDelay = Math.max(0, NumberUtils.toInt(
+                    formData.getString("masterCoverageFlushDelay"), DEFAULT_MASTER_COVERAGE_FLUSH_DELAY));
             sonarUrl = StringUtils.trimToNull(formData.getString("sonarUrl"));
             sonarToken = Secret.toString(Secret.fromString(
                     StringUtils.trimToNull(formData.getString("sonarToken"))));
@@ -207,6 +254,30 @@ public class Configuration extends AbstractDescribableImpl<Configuration> {
             return super.configure(req, formData);
         }
 
+        /**
+         * Forget Sonar projects found for repositories, they will be searched again by next builds.
+         */
+        @POST
+        public FormValidation doClearSonarProjects() {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            final SonarProjectKeyStore store = ServiceRegistry.getSonarProjectKeyStore();
+            final int size = store.size();
+            store.clear();
+            return FormValidation.ok("Cleared " + size + " Sonar projects");
+        }
+
+        /**
+         * Show how master coverage is written, see {@link MasterCoverageStore}
+         */
+        @POST
+        public FormValidation doShowMasterCoverageWrites() {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            final MasterCoverageStore store = ServiceRegistry.getMasterCoverageStore();
+            return FormValidation.ok("Pending updates: " + store.getPendingUpdates()
+                    + ", last write: " + store.getLastFlushMillis() + " ms"
+                    + ", longest write: " + store.getMaxFlushMillis() + " ms");
+        }
+
     }
 
 }
@@ -0,0 +1,139 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Coverage of one report with raw counters of the report, so coverage of many reports
+ * is summed by report size instead of average of ratios.
+ * <p>
+ * Coverage is not always <code>covered / total</code>, for example Cobertura coverage is average
+ * of line and branch rates, so reports are weighted by total.
+ * <p>
+ * Report has one pair of counters in units of its format: Jacoco instructions (or configured counter),
+ * Cobertura lines and branches, Clover statements, SimpleCov lines. Reports of different formats
+ * are weighted by totals in different units, so in mixed workspace Jacoco module usually outweighs
+ * Cobertura module of the same size. Line, branch and instruction counters are not kept separately
+ * as most reports don't have all of them.
+ */
+@SuppressWarnings("WeakerAccess")
+final class CoverageCounters implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Report doesn't have counters
+     */
+    static final long UNKNOWN = -1;
+
+    private final float coverage;
+    private final long covered;
+    private final long missed;
+
+    CoverageCounters(final float coverage, final long covered, final long missed) {
+        this.coverage = coverage;
+        this.covered = covered;
+        this.missed = missed;
+    }
+
+    static CoverageCounters of(final long covered, final long missed) {
+        final long total = covered + missed;
+        return new CoverageCounters(total == 0 ? 0 : (float) covered / total, covered, missed);
+    }
+
+    /**
+     * @param coverage - coverage of report without counters, weight of such report is unknown
+     */
+    static CoverageCounters ofCoverage(final float coverage) {
+        return new CoverageCounters(coverage, UNKNOWN, UNKNOWN);
+    }
+
+    public float getCoverage() {
+        return coverage;
+    }
+
+    public long getCovered() {
+        return covered;
+    }
+
+    public long getMissed() {
+        return missed;
+    }
+
+    public long getTotal() {
+        return hasCounters() ? covered + missed : UNKNOWN;
+    }
+
+    public boolean hasCounters() {
+        return covered != UNKNOWN && missed != UNKNOWN;
+    }
+
+    /**
+     * @return coverage of all reports weighted by total in units of each report (see class description),
+     * plain average of coverage if any report doesn't have counters as its weight is unknown
+     */
+    static float sum(final Iterable<CoverageCounters> reports) {
+        long reportsCount = 0;
+        long total = 0;
+        double coverageSum = 0;
+        // coverage is not always covered / total (Cobertura), so it's weighted instead of summing covered
+        double weightedCoverageSum = 0;
+        boolean weighted = true;
+        for (CoverageCounters report : reports) {
+            reportsCount++;
+            coverageSum += report.coverage;
+            if (report.hasCounters()) {
+                total += report.getTotal();
+                weightedCoverageSum += (double) report.coverage * report.getTotal();
+            } else {
+                weighted = false;
+            }
+        }
+        if (reportsCount == 0) return 0;
+        if (weighted && total > 0) return (float) (weightedCoverageSum / total);
+        return (float) (coverageSum / reportsCount);
+    }
+
+    /**
+     * @return counters of all reports as one report, coverage is {@link #sum(Iterable)}
+     */
+    static CoverageCounters merge(final List<CoverageCounters> reports) {
+        if (reports.size() == 1) return reports.get(0);
+        long covered = 0;
+        long missed = 0;
+        boolean counters = true;
+        for (CoverageCounters report : reports) {
+            if (report.hasCounters()) {
+                covered += report.covered;
+                missed += report.missed;
+            } else {
+                counters = false;
+            }
+        }
+        final float coverage = sum(reports);
+        return counters ? new CoverageCounters(coverage, covered, missed) : ofCoverage(coverage);
+    }
+
+    @Override
+    public String toString() {
+        return coverage + " (covered " + covered + ", missed " + missed + ")";
+    }
+
+}
@@ -21,4 +21,11 @@ interface CoverageReportParser {
 
     float get(String filePath);
 
+    /**
+     * @return coverage with raw counters of report, counters are unknown by default
+     */
+    default CoverageCounters getCounters(String filePath) {
+        return CoverageCounters.ofCoverage(get(filePath));
+    }
+
 }
@@ -8,4 +8,9 @@ interface CoverageRepository {
 
     float get(FilePath workspace) throws IOException, InterruptedException;
 
+    /**
+     * @return coverage of each report found in workspace by same scan as {@link #get(FilePath)}
+     */
+    CoverageSummary getSummary(FilePath workspace) throws IOException, InterruptedException;
+
 }
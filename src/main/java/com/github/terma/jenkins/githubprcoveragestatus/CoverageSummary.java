@@ -0,0 +1,239 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of {@link GetCoverageCallable}: counters of every found report and module of the report,
+ * where module is directory of report relative to workspace.
+ * <p>
+ * Summary is sent from agent to controller, so it's kept compact: module names are stored once
+ * and reports refer to them by index, counters are primitive arrays written as variable length
+ * numbers with format version in front.
+ */
+@SuppressWarnings("WeakerAccess")
+final class CoverageSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Version of serialized form, increase when form is changed
+     */
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * Module of report placed directly in workspace
+     */
+    static final String ROOT_MODULE = ".";
+
+    static final CoverageSummary EMPTY = new CoverageSummary(
+            new String[0], new int[0], new float[0], new long[0], new long[0]);
+
+    private transient String[] modules;
+    private transient int[] reportModules;
+    private transient float[] coverage;
+    private transient long[] covered;
+    private transient long[] missed;
+
+    private CoverageSummary(final String[] modules, final int[] reportModules,
+                            final float[] coverage, final long[] covered, final long[] missed) {
+        this.modules = modules;
+        this.reportModules = reportModules;
+        this.coverage = coverage;
+        this.covered = covered;
+        this.missed = missed;
+    }
+
+    /**
+     * @param reportModules - module of each report
+     * @param counters      - counters of each report in the same order
+     */
+    static CoverageSummary of(final List<String> reportModules, final List<CoverageCounters> counters) {
+        if (reportModules.size() != counters.size()) {
+            throw new IllegalArgumentException("Module is required for each report!");
+        }
+
+        final Map<String, Integer> moduleIds = new HashMap<>();
+        final int reports = counters.size();
+        final int[] reportModuleIds = new int[reports];
+        final float[] coverage = new float[reports];
+        final long[] covered = new long[reports];
+        final long[] missed = new long[reports];
+        for (int i = 0; i < reports; i++) {
+            final String module = reportModules.get(i);
+            Integer moduleId = moduleIds.get(module);
+            if (moduleId == null) {
+                moduleId = moduleIds.size();
+                moduleIds.put(module, moduleId);
+            }
+            reportModuleIds[i] = moduleId;
+            coverage[i] = counters.get(i).getCoverage();
+            covered[i] = counters.get(i).getCovered();
+            missed[i] = counters.get(i).getMissed();
+        }
+
+        final String[] modules = new String[moduleIds.size()];
+        for (Map.Entry<String, Integer> entry : moduleIds.entrySet()) modules[entry.getValue()] = entry.getKey();
+        return new CoverageSummary(modules, reportModuleIds, coverage, covered, missed);
+    }
+
+    /**
+     * @return coverage of all reports, see {@link CoverageCounters#sum(Iterable)}
+     */
+    public float getCoverage() {
+        return CoverageCounters.sum(getReports());
+    }
+
+    /**
+     * @return distinct modules in order of first report
+     */
+    public List<String> getModules() {
+        return Collections.unmodifiableList(Arrays.asList(modules));
+    }
+
+    public int size() {
+        return coverage.length;
+    }
+
+    public String getModule(final int report) {
+        return modules[reportModules[report]];
+    }
+
+    public CoverageCounters getCounters(final int report) {
+        return new CoverageCounters(coverage[report], covered[report], missed[report]);
+    }
+
+    /**
+     * @return counters of reports, created on access
+     */
+    public List<CoverageCounters> getReports() {
+        return new AbstractList<CoverageCounters>() {
+            @Override
+            public CoverageCounters get(int index) {
+                return getCounters(index);
+            }
+
+            @Override
+            public int size() {
+                return CoverageSummary.this.size();
+            }
+        };
+    }
+
+    /**
+     * @return counters of each module merged from its reports, in order of modules
+     */
+    public Map<String, CoverageCounters> getModuleCounters() {
+        final List<List<CoverageCounters>> reportsByModule = new ArrayList<>(modules.length);
+        for (int i = 0; i < modules.length; i++) reportsByModule.add(new ArrayList<CoverageCounters>());
+        for (int i = 0; i < size(); i++) reportsByModule.get(reportModules[i]).add(getCounters(i));
+
+        final Map<String, CoverageCounters> moduleCounters = new LinkedHashMap<>();
+        for (int i = 0; i < modules.length; i++) {
+            moduleCounters.put(modules[i], CoverageCounters.merge(reportsByModule.get(i)));
+        }
+        return moduleCounters;
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(FORMAT_VERSION);
+        writeVarLong(out, modules.length);
+        for (String module : modules) out.writeUTF(module);
+        writeVarLong(out, coverage.length);
+        for (int i = 0; i < coverage.length; i++) {
+            writeVarLong(out, reportModules[i]);
+            out.writeFloat(coverage[i]);
+            // shift by one to write unknown counter as zero
+            writeVarLong(out, covered[i] + 1);
+            writeVarLong(out, missed[i] + 1);
+        }
+    }
+
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new InvalidObjectException("Unsupported coverage summary format " + version
+                    + ", expected " + FORMAT_VERSION + ". Plugin on agent and controller should be same version!");
+        }
+        modules = new String[readSize(in)];
+        for (int i = 0; i < modules.length; i++) modules[i] = in.readUTF();
+        final int reports = readSize(in);
+        reportModules = new int[reports];
+        coverage = new float[reports];
+        covered = new long[reports];
+        missed = new long[reports];
+        for (int i = 0; i < reports; i++) {
+            final long moduleId = readVarLong(in);
+            if (moduleId >= modules.length) throw new InvalidObjectException("Unknown module " + moduleId + "!");
+            reportModules[i] = (int) moduleId;
+            coverage[i] = in.readFloat();
+            covered[i] = readVarLong(in) - 1;
+            missed[i] = readVarLong(in) - 1;
+        }
+    }
+
+    static int readSize(final DataInput in) throws IOException {
+        final long size = readVarLong(in);
+        if (size > Integer.MAX_VALUE) throw new InvalidObjectException("Too big size " + size + "!");
+        return (int) size;
+    }
+
+    /**
+     * Write non negative number by 7 bits per byte, so small counters take one or two bytes
+     */
+    static void writeVarLong(final DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(final DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new InvalidObjectException("Broken number!");
+    }
+
+    @Override
+    public String toString() {
+        return "CoverageSummary{coverage=" + getCoverage() + ", modules=" + modules.length + ", reports=" + size() + "}";
+    }
+
+}
@@ -20,6 +20,9 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 import hudson.FilePath;
 import hudson.Util;
 import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.MasterToSlaveFileCallable;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.types.FileSet;
@@ -28,59 +31,170 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Find all supported coverage reports in workspace by one scan and parse them in parallel.
+ * Reports unchanged since previous run are taken from {@link ReportCache} stored in temporary
+ * directory of workspace.
+ * <p>
+ * Coverage of all reports is weighted by their size, see {@link CoverageCounters#sum(Iterable)}.
+ * Result is {@link CoverageSummary} with counters of each report, so controller gets details
+ * without reading reports again.
+ */
 @SuppressWarnings("WeakerAccess")
-final class GetCoverageCallable extends MasterToSlaveFileCallable<Float> implements CoverageRepository {
+final class GetCoverageCallable extends MasterToSlaveFileCallable<CoverageSummary> implements CoverageRepository {
+
+    private static final String COBERTURA = "cobertura.xml";
+    private static final String COBERTURA_COVERAGE = "cobertura-coverage.xml";
+    private static final String JACOCO = "jacoco.xml";
+    //default for gradle
+    private static final String JACOCO_GRADLE = "jacocoTestReport.xml";
+    private static final String CLOVER = "clover.xml";
+    private static final String SIMPLE_COV = "coverage.json";
 
     private final boolean disableSimpleCov;
     private String jacocoCounterType = "";
+    private final int parserThreads;
+    /**
+     * Remote path of directory for {@link ReportCache}, <code>null</code> if cache is not used
+     */
+    private final String cacheDir;
+
+    GetCoverageCallable(final boolean disableSimpleCov, final String jacocoCounterType, final int parserThreads) {
+        this(disableSimpleCov, jacocoCounterType, parserThreads, null);
+    }
 
-    GetCoverageCallable(final boolean disableSimpleCov, final String jacocoCounterType) {
+    GetCoverageCallable(final boolean disableSimpleCov, final String jacocoCounterType, final int parserThreads,
+                        final String cacheDir) {
         this.disableSimpleCov = disableSimpleCov;
         this.jacocoCounterType = jacocoCounterType;
+        this.parserThreads = parserThreads;
+        this.cacheDir = cacheDir;
     }
 
-    private List<Float> getFloats(File ws, String path, CoverageReportParser parser) {
-        FileSet fs = Util.createFileSet(ws, path);
-        DirectoryScanner ds = fs.getDirectoryScanner();
-        String[] files = ds.getIncludedFiles();
-        List<Float> cov = new ArrayList<>();
-        for (String file : files) {
-            cov.add(parser.get(new File(ds.getBasedir(), file).getAbsolutePath()));
+    private String getIncludes() {
+        final List<String> reports = new ArrayList<>();
+        reports.add(COBERTURA);
+        reports.add(COBERTURA_COVERAGE);
+        reports.add(JACOCO);
+        reports.add(JACOCO_GRADLE);
+        reports.add(CLOVER);
+        if (!disableSimpleCov) reports.add(SIMPLE_COV);
+
+        final StringBuilder includes = new StringBuilder();
+        for (String report : reports) {
+            if (includes.length() > 0) includes.append(',');
+            includes.append("**/").append(report);
         }
-        return cov;
+        return includes.toString();
+    }
+
+    private CoverageReportParser getParser(final String reportName) {
+        switch (reportName) {
+            case COBERTURA:
+            case COBERTURA_COVERAGE:
+                return new CoberturaParser();
+            case JACOCO:
+            case JACOCO_GRADLE:
+                return new JacocoParser(jacocoCounterType);
+            case CLOVER:
+                return new CloverParser();
+            case SIMPLE_COV:
+                return new SimpleCovParser();
+            default:
+                throw new IllegalArgumentException("Unsupported coverage report: " + reportName);
+        }
+    }
+
+    private int getThreads(final int reports) {
+        final int threads = parserThreads > 0 ? parserThreads : Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(threads, reports));
     }
 
     @Override
     public float get(final FilePath workspace) throws IOException, InterruptedException {
+        return getSummary(workspace).getCoverage();
+    }
+
+    @Override
+    public CoverageSummary getSummary(final FilePath workspace) throws IOException, InterruptedException {
         if (workspace == null) {
             throw new IllegalArgumentException("Workspace should not be null!");
         }
-        return workspace.act(new GetCoverageCallable(disableSimpleCov, jacocoCounterType));
+        final FilePath tempDir = WorkspaceList.tempDir(workspace);
+        return workspace.act(new GetCoverageCallable(disableSimpleCov, jacocoCounterType, parserThreads,
+                tempDir != null ? tempDir.getRemote() : null));
     }
 
     @Override
-    public Float invoke(final File ws, final VirtualChannel channel) {
-        final List<Float> cov = new ArrayList<>();
-        cov.addAll(getFloats(ws, "**/cobertura.xml", new CoberturaParser()));
-        cov.addAll(getFloats(ws, "**/cobertura-coverage.xml", new CoberturaParser()));
-        cov.addAll(getFloats(ws, "**/jacoco.xml", new JacocoParser(jacocoCounterType)));
-        //default for gradle
-        cov.addAll(getFloats(ws, "**/jacocoTestReport.xml", new JacocoParser(jacocoCounterType)));
-        cov.addAll(getFloats(ws, "**/clover.xml", new CloverParser()));
-        if (!disableSimpleCov) {
-            cov.addAll(getFloats(ws, "**/coverage.json", new SimpleCovParser()));
+    public CoverageSummary invoke(final File ws, final VirtualChannel channel) throws InterruptedException {
+        final FileSet fs = Util.createFileSet(ws, getIncludes());
+        final DirectoryScanner ds = fs.getDirectoryScanner();
+        final String[] files = ds.getIncludedFiles();
+        if (files.length == 0) return CoverageSummary.EMPTY;
+
+        final ReportCache cache = cacheDir != null ? ReportCache.load(new File(cacheDir)) : null;
+        final ExecutorService executor = Executors.newFixedThreadPool(getThreads(files.length),
+                new NamingThreadFactory(new DaemonThreadFactory(), GetCoverageCallable.class.getSimpleName()));
+        try {
+            final List<String> modules = new ArrayList<>();
+            final List<Future<CoverageCounters>> futures = new ArrayList<>();
+            for (String file : files) {
+                modules.add(getModule(file));
+                final File report = new File(ds.getBasedir(), file);
+                final CoverageReportParser parser = getParser(report.getName());
+                futures.add(executor.submit(new Callable<CoverageCounters>() {
+                    @Override
+                    public CoverageCounters call() {
+                        return parse(cache, parser, report);
+                    }
+                }));
+            }
+
+            final List<CoverageCounters> results = new ArrayList<>();
+            for (Future<CoverageCounters> future : futures) {
+                results.add(getResult(future));
+            }
+            if (cache != null) cache.save();
+            return CoverageSummary.of(modules, results);
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        float s = 0;
-        for (float v : cov) {
-            s += v;
-        }
+    /**
+     * @param file - report path relative to workspace
+     * @return directory of report with <code>/</code> as separator on any OS
+     */
+    static String getModule(final String file) {
+        final String path = file.replace('\\', '/');
+        final int end = path.lastIndexOf('/');
+        return end > 0 ? path.substring(0, end) : CoverageSummary.ROOT_MODULE;
+    }
+
+    private CoverageCounters parse(final ReportCache cache, final CoverageReportParser parser, final File report) {
+        if (cache == null) return parser.getCounters(report.getAbsolutePath());
+
+        final CoverageCounters cached = cache.get(report, jacocoCounterType);
+        if (cached != null) return cached;
+        final CoverageCounters counters = parser.getCounters(report.getAbsolutePath());
+        cache.put(report, jacocoCounterType, counters);
+        return counters;
+    }
 
-        if (cov.isEmpty()) {
-            return 0f;
-        } else {
-            return s / cov.size();
+    private static CoverageCounters getResult(final Future<CoverageCounters> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
         }
     }
 
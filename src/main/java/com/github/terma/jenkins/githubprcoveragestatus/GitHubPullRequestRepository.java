@@ -21,48 +21,212 @@ import org.kohsuke.github.*;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * GitHub client is shared by all builds and created again only when GitHub API URL or token are changed,
+ * so connections (keep-alive) are reused between builds.
+ * <p>
+ * Repositories and pull requests rarely change between builds of the same pull request,
+ * so they are cached for a short time per client.
+ */
 public class GitHubPullRequestRepository implements PullRequestRepository {
 
+    private static final long REPOSITORY_TTL = TimeUnit.MINUTES.toMillis(5);
+    private static final long PULL_REQUEST_TTL = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * Number of pull request found by head commit is not changed, so it's kept long
+     */
+    private static final long PULL_REQUEST_BY_HEAD_TTL = TimeUnit.HOURS.toMillis(12);
+    /**
+     * Pull requests updated at the same time as the latest one seen by previous scan are checked again
+     */
+    private static final long SCAN_OVERLAP = TimeUnit.MINUTES.toMillis(1);
+    private static final int CACHE_SIZE = 1000;
+
+    /**
+     * Hidden in rendered comment with job full name, used to find comment of job to update
+     */
+    private static final String COMMENT_MARKER = "<!-- github-pr-coverage-status:%s -->";
+    private static final long COMMENT_TTL = TimeUnit.HOURS.toMillis(12);
+
+    private static final Object GIT_HUB_LOCK = new Object();
+    private static GitHubClient gitHubClient;
+
+    /**
+     * Pull request is searched by head branch of repository owner first. Pull request from fork is not
+     * found that way, so open pull requests are scanned then if branch of owner has no pull request. First scan of repository pages through all
+     * open pull requests, next scans only through pull requests updated since previous one (push updates
+     * pull request). All seen pull requests are indexed by repository, head branch and commit, index keeps
+     * number only, pull request itself is taken by {@link #getPullRequest(GHRepository, int)}.
+     */
     @Override
     public GHPullRequest getPullRequestFor(String gitHubUrl, String branch, String sha) throws IOException {
-        for (GHPullRequest pr : getGitHubRepository(gitHubUrl).getPullRequests(GHIssueState.OPEN)) {
-            if (pr.getHead().getRef().equals(branch) && pr.getHead().getSha().equals(sha)) {
-                return pr;
+        final GitHubClient client = getGitHubClient();
+        final String userRepo = GitUtils.getUserRepo(gitHubUrl);
+        final GHRepository repository = getGitHubRepository(gitHubUrl);
+        final String key = getHeadKey(userRepo, branch, sha);
+        final Integer indexed = client.pullRequestNumbersByHead.get(key);
+        if (indexed != null) return getPullRequest(repository, indexed);
+
+        final List<GHPullRequest> ownerPullRequests = repository.queryPullRequests()
+                .state(GHIssueState.OPEN)
+                .head(repository.getOwnerName() + ":" + branch)
+                .list().toList();
+        GHPullRequest found = findPullRequest(client, userRepo, ownerPullRequests, branch, sha);
+        // if branch of owner has pull request commit is just not its head any more, forks are not checked
+        if (found == null && ownerPullRequests.isEmpty()) {
+            final boolean incremental = client.scans.get(userRepo) != null;
+            found = scanPullRequests(client, userRepo, repository, branch, sha, incremental);
+            // index could lose pull requests seen by previous scans (expired or cache is full)
+            if (found == null && incremental) {
+                found = scanPullRequests(client, userRepo, repository, branch, sha, false);
             }
         }
-        throw new IOException(String.format("No PR found for %s %s @ %s", gitHubUrl, branch, sha));
+        if (found == null) {
+            throw new IOException(String.format("No PR found for %s %s @ %s", gitHubUrl, branch, sha));
+        }
+
+        client.pullRequests.put(getPullRequestKey(repository, found.getNumber()), found);
+        return found;
+    }
+
+    private static String getHeadKey(final String userRepo, final String branch, final String sha) {
+        return userRepo + "|" + branch + "|" + sha;
+    }
+
+    private static String getPullRequestKey(final GHRepository ghRepository, final int prId) {
+        return ghRepository.getFullName() + "#" + prId;
+    }
+
+    /**
+     * Index all pull requests and find one with required head
+     */
+    private static GHPullRequest findPullRequest(
+            final GitHubClient client, final String userRepo, final Iterable<GHPullRequest> pullRequests,
+            final String branch, final String sha) {
+        GHPullRequest found = null;
+        for (GHPullRequest pr : pullRequests) {
+            if (index(client, userRepo, pr, branch, sha)) found = pr;
+        }
+        return found;
+    }
+
+    /**
+     * Check open pull requests updated since previous scan of repository, all on first scan.
+     * Time of scan is taken from pull requests, so it doesn't depend on Jenkins clock.
+     *
+     * @param incremental - check only pull requests updated since previous scan
+     */
+    private static GHPullRequest scanPullRequests(
+            final GitHubClient client, final String userRepo, final GHRepository repository,
+            final String branch, final String sha, final boolean incremental) throws IOException {
+        final Long previousScan = incremental ? client.scans.get(userRepo) : null;
+        long latestUpdate = previousScan != null ? previousScan : 0;
+        GHPullRequest found = null;
+        for (GHPullRequest pr : repository.queryPullRequests()
+                .state(GHIssueState.OPEN)
+                .sort(GHPullRequestQueryBuilder.Sort.UPDATED)
+                .direction(GHDirection.DESC)
+                .list()) {
+            final long updated = pr.getUpdatedAt().getTime();
+            // rest is indexed by previous scan
+            if (previousScan != null && updated < previousScan - SCAN_OVERLAP) break;
+            latestUpdate = Math.max(latestUpdate, updated);
+            if (index(client, userRepo, pr, branch, sha)) found = pr;
+        }
+        client.scans.put(userRepo, latestUpdate);
+        return found;
+    }
+
+    /**
+     * @return <code>true</code> if pull request has required head
+     */
+    private static boolean index(
+            final GitHubClient client, final String userRepo, final GHPullRequest pr,
+            final String branch, final String sha) {
+        final GHCommitPointer head = pr.getHead();
+        client.pullRequestNumbersByHead.put(getHeadKey(userRepo, head.getRef(), head.getSha()), pr.getNumber());
+        return head.getRef().equals(branch) && head.getSha().equals(sha);
     }
 
     @Override
     public GHRepository getGitHubRepository(final String gitHubUrl) throws IOException {
-        GitHub gitHub = getGitHub();
+        final GitHubClient client = getGitHubClient();
+        final String userRepo = GitUtils.getUserRepo(gitHubUrl);
+        final GHRepository cached = client.repositories.get(userRepo);
+        if (cached != null) return cached;
+
+        GitHub gitHub = client.gitHub;
+        checkRateLimit(gitHub);
 
         try {
-            if (gitHub.getRateLimit().remaining == 0) {
-                throw new IOException("Exceeded rate limit for repository");
-            }
+            final GHRepository repository = gitHub.getRepository(userRepo);
+            client.repositories.put(userRepo, repository);
+            return repository;
+        } catch (IOException ex) {
+            throw new IOException("Could not retrieve GitHub repository named " + userRepo
+                    + " (Do you have properly set 'GitHub project' field in job configuration?)", ex);
+        }
+    }
+
+    @Override
+    public GHPullRequest getPullRequest(final GHRepository ghRepository, final int prId) throws IOException {
+        final GitHubClient client = getGitHubClient();
+        final String key = getPullRequestKey(ghRepository, prId);
+        GHPullRequest pullRequest = client.pullRequests.get(key);
+        if (pullRequest == null) {
+            pullRequest = ghRepository.getPullRequest(prId);
+            client.pullRequests.put(key, pullRequest);
+        }
+        return pullRequest;
+    }
+
+    /**
+     * Client tracks rate limit by headers of each response, rate limit API is called only
+     * when tracked state is expired. Fail without calling GitHub when rate limit is known to be exceeded.
+     */
+    private static void checkRateLimit(final GitHub gitHub) throws IOException {
+        final GHRateLimit.Record rateLimit;
+        try {
+            rateLimit = gitHub.rateLimit().getCore();
         } catch (FileNotFoundException ex) {
             throw new IOException("Rate limit API not found.");
         } catch (IOException ex) {
             throw new IOException("Error while accessing rate limit API", ex);
         }
 
-        final String userRepo = GitUtils.getUserRepo(gitHubUrl);
+        if (rateLimit.getRemaining() == 0 && !rateLimit.isExpired()) {
+            throw new IOException("Exceeded rate limit for repository, reset at " + rateLimit.getResetDate());
+        }
+    }
 
-        try {
-            return gitHub.getRepository(userRepo);
-        } catch (IOException ex) {
-            throw new IOException("Could not retrieve GitHub repository named " + userRepo
-                    + " (Do you have properly set 'GitHub project' field in job configuration?)", ex);
+    /**
+     * Drop client with all cached repositories, pull requests and comments
+     */
+    static void clearCache() {
+        synchronized (GIT_HUB_LOCK) {
+            gitHubClient = null;
         }
     }
 
-    private static GitHub getGitHub() throws IOException {
+    private static GitHubClient getGitHubClient() throws IOException {
         final SettingsRepository settingsRepository = ServiceRegistry.getSettingsRepository();
         final String apiUrl = settingsRepository.getGitHubApiUrl();
         final String personalAccessToken = settingsRepository.getPersonalAccessToken();
 
+        synchronized (GIT_HUB_LOCK) {
+            if (gitHubClient == null || !gitHubClient.isFor(apiUrl, personalAccessToken)) {
+                gitHubClient = new GitHubClient(apiUrl, personalAccessToken,
+                        connect(apiUrl, personalAccessToken));
+            }
+            return gitHubClient;
+        }
+    }
+
+    private static GitHub connect(final String apiUrl, final String personalAccessToken) throws IOException {
         if (apiUrl != null) {
             if (personalAccessToken != null) {
                 return GitHub.connectToEnterprise(apiUrl, personalAccessToken);
@@ -80,7 +244,58 @@ public class GitHubPullRequestRepository implements PullRequestRepository {
 
     @Override
     public void comment(final GHRepository ghRepository, final int prId, final String message) throws IOException {
-        ghRepository.getPullRequest(prId).comment(message);
+        getPullRequest(ghRepository, prId).comment(message);
+    }
+
+    /**
+     * Comment is found by {@link #COMMENT_MARKER} of job among comments of authenticated user only once,
+     * then it's kept by client, so each build does one edit request instead of listing all comments.
+     */
+    @Override
+    public void updateComment(
+            final GHRepository ghRepository, final int prId, final String job, final String message) throws IOException {
+        final GitHubClient client = getGitHubClient();
+        final String key = ghRepository.getFullName() + "#" + prId + "#" + job;
+        final String marker = getCommentMarker(job);
+        final String body = message + "\n" + marker;
+
+        final GHIssueComment cached = client.comments.get(key);
+        if (cached != null) {
+            try {
+                cached.update(body);
+                return;
+            } catch (FileNotFoundException ex) {
+                // comment was deleted, find or create it again
+                client.comments.remove(key);
+            }
+        }
+
+        final GHPullRequest pullRequest = getPullRequest(ghRepository, prId);
+        GHIssueComment comment = findComment(pullRequest, client.getLogin(), marker);
+        if (comment != null) {
+            comment.update(body);
+        } else {
+            comment = pullRequest.comment(body);
+        }
+        client.comments.put(key, comment);
+    }
+
+    static String getCommentMarker(final String job) {
+        // job name can't contain '>' so marker can't be closed by it
+        return String.format(COMMENT_MARKER, job);
+    }
+
+    /**
+     * @param login - comment of other users is never updated, even with the same marker
+     */
+    private static GHIssueComment findComment(
+            final GHPullRequest pullRequest, final String login, final String marker) throws IOException {
+        for (GHIssueComment comment : pullRequest.listComments()) {
+            if (login.equals(comment.getUserName()) && comment.getBody() != null && comment.getBody().contains(marker)) {
+                return comment;
+            }
+        }
+        return null;
     }
 
     @Override
@@ -92,4 +307,39 @@ public class GitHubPullRequestRepository implements PullRequestRepository {
     ) throws IOException {
         ghRepository.createCommitStatus(sha1, state, targetUrl, description, "test-coverage-plugin");
     }
+
+    private static class GitHubClient {
+
+        private final String apiUrl;
+        private final String personalAccessToken;
+        private final GitHub gitHub;
+        private final TtlCache<String, GHRepository> repositories = new TtlCache<>(REPOSITORY_TTL, CACHE_SIZE);
+        private final TtlCache<String, GHPullRequest> pullRequests = new TtlCache<>(PULL_REQUEST_TTL, CACHE_SIZE);
+        private final TtlCache<String, Integer> pullRequestNumbersByHead =
+                new TtlCache<>(PULL_REQUEST_BY_HEAD_TTL, CACHE_SIZE * 10);
+        /**
+         * Latest update of pull requests seen by scan of repository, index has all pull requests updated before
+         */
+        private final TtlCache<String, Long> scans = new TtlCache<>(PULL_REQUEST_BY_HEAD_TTL, CACHE_SIZE);
+        private final TtlCache<String, GHIssueComment> comments = new TtlCache<>(COMMENT_TTL, CACHE_SIZE * 10);
+        private volatile String login;
+
+        GitHubClient(String apiUrl, String personalAccessToken, GitHub gitHub) {
+            this.apiUrl = apiUrl;
+            this.personalAccessToken = personalAccessToken;
+            this.gitHub = gitHub;
+        }
+
+        boolean isFor(String apiUrl, String personalAccessToken) {
+            return Objects.equals(this.apiUrl, apiUrl) && Objects.equals(this.personalAccessToken, personalAccessToken);
+        }
+
+        /**
+         * @return login of authenticated user, taken once per client
+         */
+        String getLogin() throws IOException {
+            if (login == null) login = gitHub.getMyself().getLogin();
+            return login;
+        }
+    }
 }
@@ -17,12 +17,17 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
-import org.apache.commons.io.FileUtils;
-
-import java.io.File;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /*
 <counter type="INSTRUCTION" missed="1" covered="4"/>
@@ -31,8 +36,17 @@ import java.util.List;
     <counter type="METHOD" missed="1" covered="2"/>
     <counter type="CLASS" missed="0" covered="1"/>
  */
+
+/**
+ * Report level counters are direct children of <code>report</code> and placed after all packages,
+ * so they are taken from the end of report. If end of report has unexpected structure report is
+ * streamed (without building DOM) and all of them are collected in one pass.
+ */
 class JacocoParser implements CoverageReportParser {
 
+    private static final int REPORT_DEPTH = 1;
+    private static final int REPORT_COUNTER_DEPTH = 2;
+
     private List<String> coverageCounters = new ArrayList<String>() {{
         add("instruction");
         add("complexity");
@@ -47,40 +61,97 @@ class JacocoParser implements CoverageReportParser {
         this.coverageCounterType = coverageCounterType;
     }
 
-    private float getByXpath(final String filePath, final String content, final String xpath) {
+    private long getValue(final String filePath, final String value, final String xpath) {
         try {
-            return Float.parseFloat(XmlUtils.findInXml(content, xpath));
+            if (value == null) throw new NumberFormatException("No value");
+            return Math.round(Double.parseDouble(value));
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException(
                     "Strange Jacoco report!\n" +
                             "File path: " + filePath + "\n" +
                             "Can't extract float value by XPath: " + xpath + "\n" +
-                            "from:\n" + content);
+                            "from:\n" + Utils.readReportHead(filePath));
         }
     }
 
     @Override
     public float get(String jacocoFilePath) {
-        final String content;
+        return getCounters(jacocoFilePath).getCoverage();
+    }
+
+    @Override
+    public CoverageCounters getCounters(String jacocoFilePath) {
+        if (!isValidCoverageCounter(coverageCounterType)) {
+            coverageCounterType = coverageCounters.get(0);
+        }
+
+        Map<String, String[]> counters;
         try {
-            content = FileUtils.readFileToString(new File(jacocoFilePath));
+            counters = readTailCounters(jacocoFilePath);
+            if (counters == null || !counters.containsKey(coverageCounterType.toUpperCase())) {
+                counters = readReportCounters(jacocoFilePath);
+            }
         } catch (IOException e) {
             throw new IllegalArgumentException(
                     "Can't read Jacoco report by path: " + jacocoFilePath);
         }
 
-        if (!isValidCoverageCounter(coverageCounterType)) {
-            coverageCounterType = coverageCounters.get(0);
+        final String[] counter = counters.get(coverageCounterType.toUpperCase());
+        final long missed = getValue(jacocoFilePath,
+                counter == null ? null : counter[0], getMissedXpath(coverageCounterType));
+        final long covered = getValue(jacocoFilePath,
+                counter == null ? null : counter[1], getCoverageXpath(coverageCounterType));
+        return CoverageCounters.of(covered, missed);
+    }
+
+    /**
+     * @return report level counters from the end of report or <code>null</code> if end has unexpected structure
+     */
+    private static Map<String, String[]> readTailCounters(final String jacocoFilePath) throws IOException {
+        final ReportTail tail = ReportTail.read(jacocoFilePath);
+        if (!tail.removeEnd("report")) return null;
+        final List<String> elements = tail.removeEmptyElements("counter");
+        if (elements.isEmpty()) return null;
+
+        final Map<String, String[]> counters = new HashMap<>();
+        for (String element : elements) {
+            counters.put(ReportTail.getAttribute(element, "type"), new String[]{
+                    ReportTail.getAttribute(element, "missed"),
+                    ReportTail.getAttribute(element, "covered")});
         }
+        return counters;
+    }
 
-        final float missed = getByXpath(jacocoFilePath, content, getMissedXpath(coverageCounterType));
-        final float covered = getByXpath(jacocoFilePath,content, getCoverageXpath(coverageCounterType));
-        final float coverage = covered + missed;
-        if (coverage == 0) {
-            return 0;
-        } else {
-            return covered / (coverage);
+    /**
+     * @return report level counters by type, value is pair of raw missed and covered attributes
+     */
+    private static Map<String, String[]> readReportCounters(final String jacocoFilePath) throws IOException {
+        final Map<String, String[]> counters = new HashMap<>();
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(jacocoFilePath))) {
+            final XMLStreamReader reader = XmlUtils.createStreamReader(inputStream);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                        if (depth == REPORT_COUNTER_DEPTH && "counter".equals(reader.getLocalName())) {
+                            counters.put(reader.getAttributeValue(null, "type"), new String[]{
+                                    reader.getAttributeValue(null, "missed"),
+                                    reader.getAttributeValue(null, "covered")});
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth == REPORT_DEPTH) break;
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Can't parse Jacoco report by path: " + jacocoFilePath, e);
         }
+        return counters;
     }
 
     private boolean isValidCoverageCounter(String coverageCounter) {
@@ -1,9 +1,86 @@
 package com.github.terma.jenkins.githubprcoveragestatus;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.jayway.jsonpath.JsonPath;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
 public class JsonUtils {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     public static <T> T findInJson(String json, String jsonPath) {
         return JsonPath.read(json, jsonPath);
     }
+
+    /**
+     * Stream JSON document and take number by field names from root object, other fields
+     * (even big arrays) are skipped without building them in memory. Whole document is read,
+     * so broken document fails even if number is found.
+     *
+     * @param json       - JSON document, not closed
+     * @param fieldNames - path to number, for example: metrics, covered_percent
+     * @return number or <code>null</code> if not found or not a number
+     * @throws IOException if document can't be read or parsed
+     */
+    public static Double findNumberInJson(final InputStream json, final String... fieldNames) throws IOException {
+        return findNumbersInJson(json, fieldNames)[0];
+    }
+
+    /**
+     * Take several numbers by one pass of document.
+     *
+     * @param paths - field names of each number
+     * @return number for each path in the same order, <code>null</code> if not found
+     * @see #findNumberInJson(InputStream, String...)
+     */
+    public static Double[] findNumbersInJson(final InputStream json, final String[]... paths) throws IOException {
+        final JsonParser parser = JSON_FACTORY.createParser(json);
+        final Double[] values = new Double[paths.length];
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+            final boolean[] onPath = new boolean[paths.length];
+            Arrays.fill(onPath, true);
+            findNumbers(parser, paths, onPath, 0, values);
+        } else {
+            parser.skipChildren();
+        }
+        while (parser.nextToken() != null) parser.skipChildren();
+        return values;
+    }
+
+    /**
+     * @param parser - on start of object, on end of the object after return
+     * @param onPath - paths which lead to this object
+     */
+    private static void findNumbers(
+            final JsonParser parser, final String[][] paths, final boolean[] onPath,
+            final int depth, final Double[] values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            final boolean[] fieldOnPath = new boolean[paths.length];
+            boolean deeper = false;
+            for (int i = 0; i < paths.length; i++) {
+                if (!onPath[i] || values[i] != null || !paths[i][depth].equals(name)) continue;
+                if (depth == paths[i].length - 1) {
+                    if (token.isNumeric()) values[i] = parser.getDoubleValue();
+                } else {
+                    fieldOnPath[i] = true;
+                    deeper = true;
+                }
+            }
+
+            if (deeper && token == JsonToken.START_OBJECT) {
+                findNumbers(parser, paths, fieldOnPath, depth + 1, values);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
 }
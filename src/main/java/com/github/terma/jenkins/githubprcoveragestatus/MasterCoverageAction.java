@@ -87,12 +87,16 @@ public class MasterCoverageAction extends Recorder implements SimpleBuildStep {
         final PrintStream buildLog = listener.getLogger();
         final String gitUrl = PrIdAndUrlUtils.getGitUrl(scmVars, build, listener);
 
-        final boolean disableSimpleCov = ServiceRegistry.getSettingsRepository().isDisableSimpleCov();
+        final SettingsRepository settingsRepository = ServiceRegistry.getSettingsRepository();
+        final boolean disableSimpleCov = settingsRepository.isDisableSimpleCov();
         final String jacocoCounterType = this.jacocoCounterType;
-        final float masterCoverage = ServiceRegistry.getCoverageRepository(disableSimpleCov, jacocoCounterType)
-                .get(workspace);
+        final CoverageSummary summary = ServiceRegistry.getCoverageRepository(
+                disableSimpleCov, jacocoCounterType, settingsRepository.getParserThreads()).getSummary(workspace);
+        final float masterCoverage = summary.getCoverage();
         buildLog.println("Master coverage " + Percent.toWholeString(masterCoverage));
+        build.addOrReplaceAction(new ModuleCoverageAction(summary));
         Configuration.setMasterCoverage(gitUrl, masterCoverage);
+        Configuration.setMasterModuleCoverage(gitUrl, summary.getModuleCounters());
     }
 
     @Override
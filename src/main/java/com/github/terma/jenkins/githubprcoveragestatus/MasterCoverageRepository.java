@@ -17,6 +17,11 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 interface MasterCoverageRepository {
 
     /**
@@ -26,4 +31,22 @@ interface MasterCoverageRepository {
      */
     float get(final String gitHubRepoUrl);
 
+    /**
+     * @param gitHubRepoUrls - Git Hub Repository URLs (full)
+     * @return master coverage by repository URL, zero if coverage don't exist or not tracked before
+     */
+    default Map<String, Float> get(final Collection<String> gitHubRepoUrls) {
+        final Map<String, Float> coverages = new HashMap<>();
+        for (String gitHubRepoUrl : gitHubRepoUrls) coverages.put(gitHubRepoUrl, get(gitHubRepoUrl));
+        return coverages;
+    }
+
+    /**
+     * @param gitHubRepoUrl - Git Hub Repository URL (full)
+     * @return master coverage by module, see {@link CoverageSummary}, empty if modules are not tracked
+     */
+    default Map<String, Float> getByModule(final String gitHubRepoUrl) {
+        return Collections.emptyMap();
+    }
+
 }
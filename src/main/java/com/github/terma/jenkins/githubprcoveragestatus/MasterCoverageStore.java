@@ -0,0 +1,353 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage of master coverage recorded by {@link MasterCoverageAction}.
+ * <p>
+ * Repositories are split between {@link #SHARDS} append only files, update of one repository
+ * appends one line to own shard instead of rewriting whole storage. Shard is compacted
+ * (only latest value per repository is kept) when it contains too many outdated lines.
+ * Value same as stored one is not written at all.
+ * <p>
+ * New coverage is visible immediately, however it's written to disk in background after flush delay,
+ * so all updates made during delay are written by one flush. Call {@link #flush()} to write pending
+ * updates immediately, for example on shutdown.
+ */
+@SuppressWarnings("WeakerAccess")
+class MasterCoverageStore {
+
+    public static final String DIR_NAME = "github-pr-coverage-status-master";
+
+    static final int SHARDS = 16;
+
+    private static final Logger LOGGER = Logger.getLogger(MasterCoverageStore.class.getName());
+
+    /**
+     * Shard is compacted when it has more lines than live repositories multiplied by this factor
+     */
+    private static final int COMPACT_FACTOR = 4;
+    private static final int COMPACT_MIN_LINES = 64;
+    private static final char SEPARATOR = '\t';
+    /**
+     * Delay before failed write is tried again
+     */
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File dir;
+    private final ScheduledExecutorService executor;
+    private final Map<String, Float> coverageByRepo = new ConcurrentHashMap<>();
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final Object writeLock = new Object();
+    private final Object flushLock = new Object();
+    private final Map<String, Float> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private volatile long flushDelayMillis;
+    private volatile long lastFlushMillis;
+    private volatile long maxFlushMillis;
+
+    /**
+     * Store which writes every update immediately
+     */
+    public MasterCoverageStore(final File dir) {
+        this(dir, null);
+    }
+
+    /**
+     * @param dir      - storage directory
+     * @param executor - executor to flush pending updates or <code>null</code> to write every update immediately
+     */
+    public MasterCoverageStore(final File dir, final ScheduledExecutorService executor) {
+        this.dir = dir;
+        this.executor = executor;
+        for (int i = 0; i < SHARDS; i++) shards[i] = new Shard(new File(dir, "shard-" + i + ".log"));
+        for (Shard shard : shards) shard.load();
+    }
+
+    /**
+     * @param flushDelayMillis - how long updates are collected before written, zero to write immediately
+     */
+    public void setFlushDelay(final long flushDelayMillis) {
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    /**
+     * @param repo - Git Hub Repository URL (full)
+     * @return stored coverage or <code>null</code> if not recorded
+     */
+    public Float get(final String repo) {
+        return coverageByRepo.get(repo);
+    }
+
+    public int size() {
+        return coverageByRepo.size();
+    }
+
+    public Map<String, Float> getAll() {
+        return Collections.unmodifiableMap(coverageByRepo);
+    }
+
+    /**
+     * @return number of updates waiting for flush
+     */
+    public int getPendingUpdates() {
+        synchronized (flushLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return duration of last flush in milliseconds
+     */
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /**
+     * @return longest flush since start in milliseconds
+     */
+    public long getMaxFlushMillis() {
+        return maxFlushMillis;
+    }
+
+    public void set(final String repo, final float coverage) {
+        final long delay = flushDelayMillis;
+        final boolean flushNow = executor == null || delay <= 0;
+        // same lock for memory and pending, so concurrent updates of repository are written in same order
+        synchronized (flushLock) {
+            final Float previous = coverageByRepo.put(repo, coverage);
+            if (previous == null) getShard(repo).repos.incrementAndGet();
+            else if (previous == coverage) return;
+
+            pending.put(repo, coverage);
+            if (!flushNow) scheduleFlush(delay);
+        }
+        if (flushNow) flush();
+    }
+
+    /**
+     * Should be called under {@link #flushLock}
+     */
+    private void scheduleFlush(final long delay) {
+        if (flushScheduled || executor == null) return;
+        flushScheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Import coverage stored by previous versions, already stored repositories are not overridden.
+     *
+     * @param legacyCoverageByRepo - coverage by repository
+     */
+    public void migrate(final Map<String, Float> legacyCoverageByRepo) {
+        for (Map.Entry<String, Float> entry : legacyCoverageByRepo.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null && !coverageByRepo.containsKey(entry.getKey())) {
+                set(entry.getKey(), entry.getValue());
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write all pending updates, one write per shard.
+     */
+    public void flush() {
+        // one flush at a time, so older value of repository is never appended after newer one
+        synchronized (writeLock) {
+            final long start = System.currentTimeMillis();
+            final Map<String, Float> batch;
+            synchronized (flushLock) {
+                flushScheduled = false;
+                if (pending.isEmpty()) return;
+                batch = new HashMap<>(pending);
+                pending.clear();
+            }
+
+            final Map<Shard, Map<String, Float>> batchByShard = new HashMap<>();
+            for (Map.Entry<String, Float> entry : batch.entrySet()) {
+                final Shard shard = getShard(entry.getKey());
+                Map<String, Float> shardBatch = batchByShard.get(shard);
+                if (shardBatch == null) {
+                    shardBatch = new HashMap<>();
+                    batchByShard.put(shard, shardBatch);
+                }
+                shardBatch.put(entry.getKey(), entry.getValue());
+            }
+            UncheckedIOException failure = null;
+            for (Map.Entry<Shard, Map<String, Float>> entry : batchByShard.entrySet()) {
+                final List<String> lines = new ArrayList<>();
+                for (Map.Entry<String, Float> update : entry.getValue().entrySet()) {
+                    lines.add(toLine(update.getKey(), update.getValue()));
+                }
+                try {
+                    entry.getKey().write(lines);
+                } catch (UncheckedIOException e) {
+                    requeue(entry.getValue());
+                    failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+
+            lastFlushMillis = System.currentTimeMillis() - start;
+            maxFlushMillis = Math.max(maxFlushMillis, lastFlushMillis);
+            LOGGER.log(Level.FINE, "Flushed {0} master coverage updates in {1} ms",
+                    new Object[]{batch.size(), lastFlushMillis});
+        }
+    }
+
+    /**
+     * Return updates of failed write to pending, except ones already updated again, and retry later
+     */
+    private void requeue(final Map<String, Float> failed) {
+        synchronized (flushLock) {
+            for (Map.Entry<String, Float> entry : failed.entrySet()) {
+                if (!pending.containsKey(entry.getKey())) pending.put(entry.getKey(), entry.getValue());
+            }
+            scheduleFlush(Math.max(flushDelayMillis, RETRY_DELAY_MILLIS));
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Can't flush master coverage", e);
+        }
+    }
+
+    private Shard getShard(final String repo) {
+        return shards[(repo.hashCode() & Integer.MAX_VALUE) % SHARDS];
+    }
+
+    private static String toLine(final String repo, final float coverage) {
+        return repo + SEPARATOR + coverage + '\n';
+    }
+
+    private class Shard {
+
+        private final File file;
+        private final AtomicInteger repos = new AtomicInteger();
+        private int lines;
+
+        Shard(final File file) {
+            this.file = file;
+        }
+
+        /**
+         * Only lines terminated by new line are complete. Line partially written on crash is not loaded
+         * (it could be cut inside of coverage value) and is cut from file, so next append doesn't continue it.
+         */
+        synchronized void load() {
+            if (!file.isFile()) return;
+            try {
+                final byte[] bytes = Files.readAllBytes(file.toPath());
+                int complete = bytes.length;
+                while (complete > 0 && bytes[complete - 1] != '\n') complete--;
+                if (complete < bytes.length) {
+                    LOGGER.warning("Drop partially written master coverage line of " + file);
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                        channel.truncate(complete);
+                    }
+                }
+
+                final String content = new String(bytes, 0, complete, StandardCharsets.UTF_8);
+                for (String line : content.split("\n")) {
+                    if (line.isEmpty()) continue;
+                    lines++;
+                    final int separator = line.lastIndexOf(SEPARATOR);
+                    if (separator < 1) continue;
+                    try {
+                        final float coverage = Float.parseFloat(line.substring(separator + 1));
+                        if (coverageByRepo.put(line.substring(0, separator), coverage) == null) repos.incrementAndGet();
+                    } catch (NumberFormatException e) {
+                        LOGGER.warning("Skip invalid master coverage line of " + file + ": " + line);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't read master coverage from " + file, e);
+            }
+        }
+
+        synchronized void write(final List<String> newLines) {
+            try {
+                if (lines + newLines.size() > Math.max(COMPACT_MIN_LINES, repos.get() * COMPACT_FACTOR)) {
+                    compact();
+                } else {
+                    append(newLines);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Can't store master coverage to " + file, e);
+            }
+        }
+
+        private void append(final List<String> newLines) throws IOException {
+            final StringBuilder content = new StringBuilder();
+            for (String line : newLines) content.append(line);
+
+            Files.createDirectories(dir.toPath());
+            Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            lines += newLines.size();
+        }
+
+        private void compact() throws IOException {
+            final StringBuilder content = new StringBuilder();
+            int compacted = 0;
+            for (Map.Entry<String, Float> entry : coverageByRepo.entrySet()) {
+                if (getShard(entry.getKey()) == this) {
+                    content.append(toLine(entry.getKey(), entry.getValue()));
+                    compacted++;
+                }
+            }
+
+            Files.createDirectories(dir.toPath());
+            final File temp = File.createTempFile(file.getName(), ".tmp", dir);
+            Files.write(temp.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = compacted;
+        }
+    }
+
+}
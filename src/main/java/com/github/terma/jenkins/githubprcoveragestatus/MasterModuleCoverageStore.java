@@ -0,0 +1,349 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import hudson.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Master coverage of each module recorded by {@link MasterCoverageAction}, see {@link ModuleCoverageAction}.
+ * <p>
+ * Every repository has own small binary file, so recording of one repository doesn't touch others.
+ * Modules of repository are loaded on first use and kept in memory as sorted primitive arrays
+ * for {@link #CACHE_TTL_MILLIS}, so memory depends on number of active repositories only.
+ * <p>
+ * Like {@link MasterCoverageStore} new modules are visible immediately and written to disk in background
+ * after flush delay, failed write is logged and retried later. Modules same as in memory are not written at all.
+ */
+@SuppressWarnings("WeakerAccess")
+class MasterModuleCoverageStore {
+
+    public static final String DIR_NAME = "github-pr-coverage-status-master-modules";
+
+    /**
+     * Version of file format, increase when format is changed
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final long CACHE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final int CACHE_SIZE = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(MasterModuleCoverageStore.class.getName());
+
+    private static final String FILE_EXTENSION = ".bin";
+
+    /**
+     * Delay before failed write is tried again
+     */
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File dir;
+    private final ScheduledExecutorService executor;
+    private final TtlCache<String, Modules> loaded = new TtlCache<>(CACHE_TTL_MILLIS, CACHE_SIZE);
+
+    private final Object writeLock = new Object();
+    private final Object flushLock = new Object();
+    /**
+     * Modules waiting for write, removed only when written
+     */
+    private final Map<String, Modules> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private volatile long flushDelayMillis;
+
+    /**
+     * Store which writes every update immediately
+     */
+    public MasterModuleCoverageStore(final File dir) {
+        this(dir, null);
+    }
+
+    /**
+     * @param dir      - storage directory
+     * @param executor - executor to flush pending updates or <code>null</code> to write every update immediately
+     */
+    public MasterModuleCoverageStore(final File dir, final ScheduledExecutorService executor) {
+        this.dir = dir;
+        this.executor = executor;
+    }
+
+    /**
+     * @param flushDelayMillis - how long updates are collected before written, zero to write immediately
+     */
+    public void setFlushDelay(final long flushDelayMillis) {
+        this.flushDelayMillis = flushDelayMillis;
+    }
+
+    /**
+     * @param repo - Git Hub Repository URL (full)
+     * @return master coverage of modules or <code>null</code> if not recorded
+     */
+    public Modules get(final String repo) {
+        Modules modules = getInMemory(repo);
+        if (modules == null) modules = load(repo);
+        return modules.isEmpty() ? null : modules;
+    }
+
+    /**
+     * Never fails, write problem is logged.
+     *
+     * @param repo           - Git Hub Repository URL (full)
+     * @param moduleCounters - counters by module, see {@link CoverageSummary#getModuleCounters()}
+     */
+    public void set(final String repo, final Map<String, CoverageCounters> moduleCounters) {
+        final Modules modules = Modules.of(moduleCounters);
+        final long delay = flushDelayMillis;
+        final boolean flushNow = executor == null || delay <= 0;
+        synchronized (flushLock) {
+            if (modules.equals(getInMemory(repo))) return;
+            pending.put(repo, modules);
+            loaded.put(repo, modules);
+            if (!flushNow) scheduleFlush(delay);
+        }
+        if (flushNow) flushQuietly();
+    }
+
+    /**
+     * @return number of repositories waiting for write
+     */
+    public int getPendingUpdates() {
+        synchronized (flushLock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Write all pending modules, failed ones are kept for next flush.
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            final Map<String, Modules> batch;
+            synchronized (flushLock) {
+                flushScheduled = false;
+                if (pending.isEmpty()) return;
+                batch = new HashMap<>(pending);
+            }
+
+            IOException failure = null;
+            for (Map.Entry<String, Modules> entry : batch.entrySet()) {
+                try {
+                    write(entry.getKey(), entry.getValue());
+                } catch (IOException e) {
+                    failure = e;
+                    continue;
+                }
+                synchronized (flushLock) {
+                    // keep newer modules set during write
+                    pending.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            if (failure != null) {
+                synchronized (flushLock) {
+                    scheduleFlush(Math.max(flushDelayMillis, RETRY_DELAY_MILLIS));
+                }
+                throw new UncheckedIOException("Can't store master coverage of modules to " + dir, failure);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Can't flush master coverage of modules", e);
+        }
+    }
+
+    /**
+     * Should be called under {@link #flushLock}
+     */
+    private void scheduleFlush(final long delay) {
+        if (flushScheduled || executor == null) return;
+        flushScheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return modules waiting for write or cached, <code>null</code> if not in memory
+     */
+    private Modules getInMemory(final String repo) {
+        synchronized (flushLock) {
+            final Modules modules = pending.get(repo);
+            if (modules != null) return modules;
+        }
+        return loaded.get(repo);
+    }
+
+    private void write(final String repo, final Modules modules) throws IOException {
+        Files.createDirectories(dir.toPath());
+        final File temp = File.createTempFile(getFile(repo).getName(), ".tmp", dir);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(repo);
+            modules.write(out);
+        }
+        Files.move(temp.toPath(), getFile(repo).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return modules from file, empty if not recorded
+     */
+    private Modules load(final String repo) {
+        Modules modules = Modules.EMPTY;
+        final File file = getFile(repo);
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                final int version = in.readByte();
+                // other version or other repository with same digest is ignored, next master build overrides it
+                if (version == FORMAT_VERSION && repo.equals(in.readUTF())) modules = Modules.read(in);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Can't read master coverage of modules from " + file, e);
+            }
+        }
+        synchronized (flushLock) {
+            // modules set during read are newer
+            final Modules current = getInMemory(repo);
+            if (current != null) return current;
+            loaded.put(repo, modules);
+        }
+        return modules;
+    }
+
+    private File getFile(final String repo) {
+        return new File(dir, Util.getDigestOf(repo) + FILE_EXTENSION);
+    }
+
+    /**
+     * Coverage of modules of one repository as arrays sorted by module
+     */
+    static final class Modules {
+
+        static final Modules EMPTY = new Modules(new String[0], new float[0], new long[0], new long[0]);
+
+        private final String[] names;
+        private final float[] coverage;
+        private final long[] covered;
+        private final long[] missed;
+
+        private Modules(final String[] names, final float[] coverage, final long[] covered, final long[] missed) {
+            this.names = names;
+            this.coverage = coverage;
+            this.covered = covered;
+            this.missed = missed;
+        }
+
+        static Modules of(final Map<String, CoverageCounters> moduleCounters) {
+            final String[] names = moduleCounters.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            final Modules modules = new Modules(names,
+                    new float[names.length], new long[names.length], new long[names.length]);
+            for (int i = 0; i < names.length; i++) {
+                final CoverageCounters counters = moduleCounters.get(names[i]);
+                modules.coverage[i] = counters.getCoverage();
+                modules.covered[i] = counters.getCovered();
+                modules.missed[i] = counters.getMissed();
+            }
+            return modules;
+        }
+
+        static Modules read(final DataInputStream in) throws IOException {
+            final int size = CoverageSummary.readSize(in);
+            final Modules modules = new Modules(new String[size], new float[size], new long[size], new long[size]);
+            for (int i = 0; i < size; i++) {
+                // same modules (src, core etc.) are in many repositories
+                modules.names[i] = in.readUTF().intern();
+                modules.coverage[i] = in.readFloat();
+                // shift by one to write unknown counter as zero
+                modules.covered[i] = CoverageSummary.readVarLong(in) - 1;
+                modules.missed[i] = CoverageSummary.readVarLong(in) - 1;
+            }
+            return modules;
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            CoverageSummary.writeVarLong(out, names.length);
+            for (int i = 0; i < names.length; i++) {
+                out.writeUTF(names[i]);
+                out.writeFloat(coverage[i]);
+                CoverageSummary.writeVarLong(out, covered[i] + 1);
+                CoverageSummary.writeVarLong(out, missed[i] + 1);
+            }
+        }
+
+        public boolean isEmpty() {
+            return names.length == 0;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @return counters of module or <code>null</code> if module not recorded
+         */
+        public CoverageCounters get(final String module) {
+            final int i = Arrays.binarySearch(names, module);
+            return i < 0 ? null : new CoverageCounters(coverage[i], covered[i], missed[i]);
+        }
+
+        public Map<String, Float> getCoverageByModule() {
+            final Map<String, Float> coverageByModule = new LinkedHashMap<>();
+            for (int i = 0; i < names.length; i++) coverageByModule.put(names[i], coverage[i]);
+            return coverageByModule;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Modules modules = (Modules) o;
+            return Arrays.equals(names, modules.names) && Arrays.equals(coverage, modules.coverage)
+                    && Arrays.equals(covered, modules.covered) && Arrays.equals(missed, modules.missed);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(names) * 31 + Arrays.hashCode(coverage);
+        }
+    }
+
+}
@@ -20,6 +20,12 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.util.URIUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
 @SuppressWarnings("WeakerAccess")
 class Message {
 
@@ -30,12 +36,30 @@ class Message {
     private static final String COLOR_YELLOW = "yellow";
     private static final String COLOR_GREEN = "brightgreen";
 
+    /**
+     * Max number of modules with biggest coverage change shown in comment
+     */
+    static final int TOP_MODULES = 10;
+
     private final float coverage;
     private final float masterCoverage;
+    private final Map<String, Float> moduleCoverage;
+    private final Map<String, Float> masterModuleCoverage;
 
     public Message(float coverage, float masterCoverage) {
+        this(coverage, masterCoverage, Collections.<String, Float>emptyMap(), Collections.<String, Float>emptyMap());
+    }
+
+    /**
+     * @param moduleCoverage       - coverage by module, see {@link ModuleCoverageAction}
+     * @param masterModuleCoverage - master coverage by module, modules absent on master are not compared
+     */
+    public Message(float coverage, float masterCoverage,
+                   Map<String, Float> moduleCoverage, Map<String, Float> masterModuleCoverage) {
         this.coverage = Percent.roundFourAfterDigit(coverage);
         this.masterCoverage = Percent.roundFourAfterDigit(masterCoverage);
+        this.moduleCoverage = moduleCoverage;
+        this.masterModuleCoverage = masterModuleCoverage;
     }
 
     public String forConsole() {
@@ -50,14 +74,53 @@ class Message {
             final int yellowThreshold, final int greenThreshold,
             final boolean useShieldsIo) {
         final String icon = forIcon();
+        final String badge;
         if (useShieldsIo) {
-            return "[![" + icon + "](" + shieldIoUrl(icon, yellowThreshold, greenThreshold) + ")](" + buildUrl + ")";
+            badge = "[![" + icon + "](" + shieldIoUrl(icon, yellowThreshold, greenThreshold) + ")](" + buildUrl + ")";
         } else {
-            return "[![" + icon + "](" + jenkinsUrl + "/coverage-status-icon/" +
+            badge = "[![" + icon + "](" + jenkinsUrl + "/coverage-status-icon/" +
                     "?coverage=" + coverage +
                     "&masterCoverage=" + masterCoverage +
                     ")](" + buildUrl + ")";
         }
+        return badge + forModules();
+    }
+
+    /**
+     * Table of {@link #TOP_MODULES} modules with biggest coverage change vs master, empty if nothing changed
+     * or there is only one module (table would repeat overall coverage)
+     */
+    private String forModules() {
+        if (moduleCoverage.size() <= 1) return "";
+
+        final List<ModuleChange> changes = new ArrayList<>();
+        for (Map.Entry<String, Float> module : moduleCoverage.entrySet()) {
+            final Float master = masterModuleCoverage.get(module.getKey());
+            if (master == null) continue;
+            final ModuleChange change = new ModuleChange(module.getKey(), module.getValue(), master);
+            if (change.change != 0) changes.add(change);
+        }
+        if (changes.isEmpty()) return "";
+
+        Collections.sort(changes, new Comparator<ModuleChange>() {
+            @Override
+            public int compare(ModuleChange o1, ModuleChange o2) {
+                final int result = Float.compare(Math.abs(o2.change), Math.abs(o1.change));
+                return result != 0 ? result : o1.module.compareTo(o2.module);
+            }
+        });
+
+        final StringBuilder table = new StringBuilder("\n\n| Module | Coverage | Change vs master |\n| --- | --- | --- |");
+        for (ModuleChange change : changes.subList(0, Math.min(TOP_MODULES, changes.size()))) {
+            table.append("\n| ").append(change.module.replace("|", "\\|"))
+                    .append(" | ").append(Percent.toWholeNoSignString(change.coverage))
+                    .append(" | ").append(Percent.toString(change.change))
+                    .append(" |");
+        }
+        if (changes.size() > TOP_MODULES) {
+            table.append("\n\nOther changed modules: ").append(changes.size() - TOP_MODULES);
+        }
+        return table.toString();
     }
 
     public String forStatusCheck() {
@@ -98,4 +161,19 @@ class Message {
                 Percent.toString(Percent.change(coverage, masterCoverage)),
                 Percent.toWholeNoSignString(masterCoverage));
     }
+
+    private static class ModuleChange {
+
+        final String module;
+        final float coverage;
+        final float change;
+
+        ModuleChange(String module, float coverage, float masterCoverage) {
+            this.module = module;
+            this.coverage = Percent.roundFourAfterDigit(coverage);
+            this.change = Percent.roundFourAfterDigit(
+                    Percent.change(this.coverage, Percent.roundFourAfterDigit(masterCoverage)));
+        }
+    }
+
 }
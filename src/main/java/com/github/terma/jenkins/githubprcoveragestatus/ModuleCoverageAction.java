@@ -0,0 +1,75 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import hudson.model.InvisibleAction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coverage of each module (directory of report) of build, taken from same {@link CoverageSummary}
+ * as coverage of build, so breakdown doesn't need extra scan of workspace.
+ * Stored with build as primitive arrays.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ModuleCoverageAction extends InvisibleAction {
+
+    private final String[] modules;
+    private final float[] coverage;
+    private final long[] covered;
+    private final long[] missed;
+
+    public ModuleCoverageAction(final CoverageSummary summary) {
+        final Map<String, CoverageCounters> moduleCounters = summary.getModuleCounters();
+        modules = new String[moduleCounters.size()];
+        coverage = new float[modules.length];
+        covered = new long[modules.length];
+        missed = new long[modules.length];
+        int i = 0;
+        for (Map.Entry<String, CoverageCounters> entry : moduleCounters.entrySet()) {
+            modules[i] = entry.getKey();
+            coverage[i] = entry.getValue().getCoverage();
+            covered[i] = entry.getValue().getCovered();
+            missed[i] = entry.getValue().getMissed();
+            i++;
+        }
+    }
+
+    public List<String> getModules() {
+        return Collections.unmodifiableList(Arrays.asList(modules));
+    }
+
+    public Map<String, Float> getCoverageByModule() {
+        final Map<String, Float> coverageByModule = new LinkedHashMap<>();
+        for (int i = 0; i < modules.length; i++) coverageByModule.put(modules[i], coverage[i]);
+        return coverageByModule;
+    }
+
+    public Map<String, CoverageCounters> getCountersByModule() {
+        final Map<String, CoverageCounters> countersByModule = new LinkedHashMap<>();
+        for (int i = 0; i < modules.length; i++) {
+            countersByModule.put(modules[i], new CoverageCounters(coverage[i], covered[i], missed[i]));
+        }
+        return countersByModule;
+    }
+
+}
@@ -32,12 +32,14 @@ public class PrIdAndUrlUtils {
      * Injected by Git plugin
      */
     public static final String GIT_URL_PROPERTY = "GIT_URL";
+    public static final String GIT_COMMIT_PROPERTY = "GIT_COMMIT";
 
     /**
      * Injected by
      * https://plugins.jenkins.io/ghprb/
      */
     public static final String GIT_PR_ID_ENV_PROPERTY = "ghprbPullId";
+    public static final String GIT_PR_ACTUAL_COMMIT_ENV_PROPERTY = "ghprbActualCommit";
     public static final String CHANGE_ID_PROPERTY = "CHANGE_ID";
     public static final String CHANGE_URL_PROPERTY = "CHANGE_URL";
 
@@ -58,7 +60,7 @@ public class PrIdAndUrlUtils {
         final PrintStream buildLog = listener.getLogger();
         final String url = scmVars.get(GIT_URL_PROPERTY);
         final String branch = scmVars.get("GIT_BRANCH");
-        final String sha = scmVars.get("GIT_COMMIT");
+        final String sha = scmVars.get(GIT_COMMIT_PROPERTY);
         buildLog.println(CompareCoverageAction.BUILD_LOG_PREFIX + String.format("Attempt to discover PR for %s @ %s", branch, sha));
         GHPullRequest gitPr = ServiceRegistry.getPullRequestRepository().getPullRequestFor(url, branch, sha);
         int id = gitPr.getNumber();
@@ -75,6 +77,24 @@ public class PrIdAndUrlUtils {
         return id;
     }
 
+    /**
+     * Head commit of pull request if known by build. <code>GIT_COMMIT</code> could be merge commit
+     * of pull request and target branch, so it's used only when pull request is discovered by it from
+     * <code>scmVars</code>, see {@link #getMultiBranch(Map, TaskListener)}
+     *
+     * @return head commit SHA or <code>null</code>
+     */
+    public static String getHeadSha(
+            final Map<String, String> scmVars, final Run build, final TaskListener listener) throws IOException, InterruptedException {
+        final EnvVars envVars = build.getEnvironment(listener);
+        final String actualCommit = envVars.get(GIT_PR_ACTUAL_COMMIT_ENV_PROPERTY);
+        if (actualCommit != null) return actualCommit;
+        if (scmVars != null && envVars.get(GIT_PR_ID_ENV_PROPERTY) == null && envVars.get(CHANGE_ID_PROPERTY) == null) {
+            return scmVars.get(GIT_COMMIT_PROPERTY);
+        }
+        return null;
+    }
+
     public static String getGitUrl(final Map<String, String> scmVars, final Run build, final TaskListener listener) throws IOException, InterruptedException {
         Map<String, String> envVars = build.getEnvironment(listener);
         final String gitUrl = envVars.get(GIT_URL_PROPERTY);
@@ -0,0 +1,254 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publish results to GitHub in background, so build doesn't wait for GitHub.
+ * <p>
+ * Publications of the same repository are done one by one in order of adding,
+ * different repositories are published in parallel by workers. Failed publication
+ * is retried with exponential backoff before next publication of the same repository.
+ * <p>
+ * Publications to the same target (for example status check of the same pull request) are coalesced:
+ * waiting publication is dropped when newer one is added, publication older than already
+ * added one is ignored (see result of {@link #add(String, Publication)}). So push storm doesn't produce
+ * comment per build. Dropped publication is notified by {@link Publication#superseded()}.
+ */
+@SuppressWarnings("WeakerAccess")
+class PublicationQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(PublicationQueue.class.getName());
+
+    private static final long LATEST_VERSION_TTL = TimeUnit.HOURS.toMillis(1);
+    private static final int LATEST_VERSION_CACHE_SIZE = 10000;
+
+    interface Publication {
+
+        /**
+         * @return description for log, for example: comment to pull request #12
+         */
+        String getDescription();
+
+        /**
+         * @return where result is published, for example: repository url + pull request id + kind
+         */
+        String getTarget();
+
+        /**
+         * @return publication with bigger version supersedes publication with the same target,
+         * for example build start time
+         */
+        long getVersion();
+
+        void publish() throws Exception;
+
+        /**
+         * Called instead of {@link #publish()} when newer publication to the same target was added
+         * after this one, build which added it could be already finished
+         */
+        void superseded();
+
+    }
+
+    private final Executor workers;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final Map<String, Deque<Publication>> queues = new HashMap<>();
+    private final TtlCache<String, Long> latestVersions = new TtlCache<>(LATEST_VERSION_TTL, LATEST_VERSION_CACHE_SIZE);
+
+    /**
+     * @param workers       - executor with bounded number of threads
+     * @param maxAttempts   - how many times publication is tried before dropped
+     * @param backoffMillis - delay before first retry, doubled for each next retry
+     */
+    PublicationQueue(final Executor workers, final int maxAttempts, final long backoffMillis) {
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * @param key         - repository, publications with the same key are published in order
+     * @param publication - publication
+     * @return <code>false</code> if publication is ignored as newer one to the same target was already added
+     */
+    public boolean add(final String key, final Publication publication) {
+        synchronized (queues) {
+            if (!updateLatestVersion(publication)) return false;
+
+            Deque<Publication> queue = queues.get(key);
+            if (queue != null) {
+                // queue is already published by worker, first publication is in progress
+                final Iterator<Publication> waiting = queue.iterator();
+                waiting.next();
+                while (waiting.hasNext()) {
+                    final Publication superseded = waiting.next();
+                    if (superseded.getTarget().equals(publication.getTarget())) {
+                        LOGGER.fine("Drop " + superseded.getDescription() + " superseded by newer one");
+                        waiting.remove();
+                        superseded.superseded();
+                    }
+                }
+                queue.add(publication);
+                return true;
+            }
+            queue = new ArrayDeque<>();
+            queue.add(publication);
+            queues.put(key, queue);
+        }
+        schedule(key);
+        return true;
+    }
+
+    /**
+     * @return number of publications waiting or in progress
+     */
+    public int size() {
+        synchronized (queues) {
+            int size = 0;
+            for (Deque<Publication> queue : queues.values()) size += queue.size();
+            return size;
+        }
+    }
+
+    private void schedule(final String key) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                publishAll(key);
+            }
+        });
+    }
+
+    private void publishAll(final String key) {
+        boolean released = false;
+        try {
+            publishQueue(key);
+            released = true;
+        } finally {
+            if (!released) releaseFailed(key);
+        }
+    }
+
+    /**
+     * Unexpected error of publication, drop it and continue with next publications by new worker,
+     * otherwise key stays busy and next publications are never published.
+     */
+    private void releaseFailed(final String key) {
+        final boolean hasNext;
+        synchronized (queues) {
+            final Deque<Publication> queue = queues.get(key);
+            if (queue == null) return;
+            final Publication failed = queue.poll();
+            if (failed != null) LOGGER.warning("Drop " + failed.getDescription() + " failed by unexpected error");
+            hasNext = !queue.isEmpty();
+            if (!hasNext) queues.remove(key);
+        }
+        if (hasNext) schedule(key);
+    }
+
+    /**
+     * Publish publications of key till queue is empty. Queue is never empty while it's in {@link #queues}:
+     * finished publication is polled and empty queue is removed at once, otherwise publication added
+     * in between would be left without worker.
+     */
+    private void publishQueue(final String key) {
+        Publication publication;
+        synchronized (queues) {
+            publication = queues.get(key).peek();
+        }
+        while (true) {
+
+            try {
+                if (isSuperseded(publication)) {
+                    LOGGER.fine("Skip " + publication.getDescription() + " superseded by newer one");
+                    publication.superseded();
+                } else {
+                    publishWithRetries(publication);
+                }
+            } catch (InterruptedException e) {
+                synchronized (queues) {
+                    queues.remove(key);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            synchronized (queues) {
+                final Deque<Publication> queue = queues.get(key);
+                queue.poll();
+                publication = queue.peek();
+                if (publication == null) {
+                    queues.remove(key);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if newer publication to the same target was already added
+     */
+    private boolean updateLatestVersion(final Publication publication) {
+        final Long latestVersion = latestVersions.get(publication.getTarget());
+        if (latestVersion != null && latestVersion > publication.getVersion()) {
+            LOGGER.fine("Ignore " + publication.getDescription() + " superseded by newer one");
+            return false;
+        }
+        latestVersions.put(publication.getTarget(), publication.getVersion());
+        return true;
+    }
+
+    private boolean isSuperseded(final Publication publication) {
+        synchronized (queues) {
+            final Long latestVersion = latestVersions.get(publication.getTarget());
+            return latestVersion != null && latestVersion > publication.getVersion();
+        }
+    }
+
+    private void publishWithRetries(final Publication publication) throws InterruptedException {
+        long delay = backoffMillis;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                publication.publish();
+                return;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    LOGGER.log(Level.WARNING, "Couldn't publish " + publication.getDescription()
+                            + " after " + attempt + " attempts", e);
+                    return;
+                }
+                LOGGER.log(Level.FINE, "Couldn't publish " + publication.getDescription()
+                        + ", retry in " + delay + " ms", e);
+                Thread.sleep(delay);
+                delay *= 2;
+            }
+        }
+    }
+
+}
@@ -29,8 +29,17 @@ interface PullRequestRepository {
 
     GHRepository getGitHubRepository(final String gitHubUrl) throws IOException;
 
+    GHPullRequest getPullRequest(GHRepository ghRepository, int prId) throws IOException;
+
     void comment(GHRepository ghRepository, int prId, String message) throws IOException;
 
+    /**
+     * Update comment added by previous call for the same job and pull request or add new one if not found.
+     *
+     * @param job - full name of job, each job has own comment in pull request
+     */
+    void updateComment(GHRepository ghRepository, int prId, String job, String message) throws IOException;
+
     void createCommitStatus(
             GHRepository ghRepository,
             String sha1,
@@ -0,0 +1,229 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Agent side cache of parsed coverage reports, so re-run of step on same reports
+ * (retry, parallel stages etc.) doesn't parse them again.
+ * <p>
+ * Report is unchanged when it has same size and modification time as cached one. Report is never read
+ * to cache it, as parsers read only head or tail of big reports. Content digest is calculated only when
+ * size is same and modification time is different (checkout, unstash) and stored with next result,
+ * so report which keeps content with new modification time is taken from cache since second run.
+ * Cache is best effort, any problem with cache file is ignored and reports are parsed as usual.
+ */
+@SuppressWarnings("WeakerAccess")
+class ReportCache {
+
+    static final String CACHE_DIR = "github-pr-coverage-status";
+    static final String CACHE_FILE = "report-cache.properties";
+
+    private static final String SEPARATOR = ";";
+    private static final String NO_DIGEST = "-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Entry> used = new ConcurrentHashMap<>();
+    /**
+     * Digests calculated by {@link #get(File, String)} of changed reports, to store them by {@link #put}
+     */
+    private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+    private ReportCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param dir - directory for cache file, usually temporary directory of workspace
+     * @return cache with entries stored by previous runs
+     */
+    public static ReportCache load(final File dir) {
+        final ReportCache cache = new ReportCache(new File(new File(dir, CACHE_DIR), CACHE_FILE));
+        cache.loaded.putAll(read(cache.file));
+        return cache;
+    }
+
+    /**
+     * @return stored entries, empty if file doesn't exist or can't be read
+     */
+    private static Map<String, Entry> read(final File file) {
+        final Map<String, Entry> entries = new HashMap<>();
+        if (!file.isFile()) return entries;
+
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            return entries;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            final Entry entry = Entry.parse(properties.getProperty(key));
+            if (entry != null) entries.put(key, entry);
+        }
+        return entries;
+    }
+
+    /**
+     * @param report   - report file
+     * @param settings - parser settings which could change result, for example Jacoco counter type
+     * @return cached counters or <code>null</code> if report was changed or never cached
+     */
+    public CoverageCounters get(final File report, final String settings) {
+        final String key = getKey(report, settings);
+        final Entry entry = loaded.get(key);
+        if (entry == null || entry.size != report.length()) return null;
+
+        final long lastModified = report.lastModified();
+        if (entry.lastModified == lastModified) {
+            used.put(key, entry);
+            return entry.counters;
+        }
+
+        final String digest = digest(report);
+        if (digest == null) return null;
+        if (!digest.equals(entry.digest)) {
+            digests.put(key, digest);
+            return null;
+        }
+        used.put(key, new Entry(entry.size, lastModified, digest, entry.counters));
+        return entry.counters;
+    }
+
+    /**
+     * Doesn't read report, digest is stored only if it was calculated by {@link #get(File, String)}
+     */
+    public void put(final File report, final String settings, final CoverageCounters counters) {
+        final String key = getKey(report, settings);
+        used.put(key, new Entry(report.length(), report.lastModified(), digests.remove(key), counters));
+    }
+
+    /**
+     * Merge entries of reports used by current run into stored ones, so runs on the same workspace
+     * with other reports or settings don't evict each other. Stored entries are read again as other run
+     * could save them after this cache was loaded. Entries of disappeared reports are dropped.
+     */
+    public void save() {
+        final Map<String, Entry> merged = read(file);
+        merged.putAll(used);
+
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : merged.entrySet()) {
+            if (getReport(entry.getKey()).isFile()) {
+                properties.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+        }
+
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        try {
+            final File temp = File.createTempFile(CACHE_FILE, ".tmp", dir);
+            try (OutputStream outputStream = new FileOutputStream(temp)) {
+                properties.store(outputStream, null);
+            }
+            // other runs on same workspace could read cache at the same time
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // cache is optional
+        }
+    }
+
+    private static String getKey(final File report, final String settings) {
+        return report.getAbsolutePath() + SEPARATOR + settings;
+    }
+
+    /**
+     * Settings don't contain separator, path could
+     */
+    private static File getReport(final String key) {
+        return new File(key.substring(0, key.lastIndexOf(SEPARATOR)));
+    }
+
+    private static String digest(final File report) {
+        try (DigestInputStream inputStream = new DigestInputStream(
+                new FileInputStream(report), MessageDigest.getInstance("SHA-256"))) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (inputStream.read(buffer) >= 0) {
+                // digest is calculated during read
+            }
+            return Util.toHexString(inputStream.getMessageDigest().digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static class Entry {
+
+        final long size;
+        final long lastModified;
+        /**
+         * <code>null</code> if unknown
+         */
+        final String digest;
+        final CoverageCounters counters;
+
+        Entry(long size, long lastModified, String digest, CoverageCounters counters) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.counters = counters;
+        }
+
+        /**
+         * @return entry or <code>null</code> if value is broken or stored by old version without counters
+         */
+        static Entry parse(final String value) {
+            final String[] parts = value.split(SEPARATOR);
+            if (parts.length != 6) return null;
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        NO_DIGEST.equals(parts[2]) ? null : parts[2],
+                        new CoverageCounters(Float.parseFloat(parts[3]), Long.parseLong(parts[4]), Long.parseLong(parts[5])));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return size + SEPARATOR + lastModified + SEPARATOR + (digest != null ? digest : NO_DIGEST)
+                    + SEPARATOR + counters.getCoverage()
+                    + SEPARATOR + counters.getCovered() + SEPARATOR + counters.getMissed();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End of XML report, for reports which have totals after all details (Jacoco, Clover).
+ * Only end of file is read, so cost doesn't depend on report size.
+ * <p>
+ * Elements are matched from the end of tail text, caller should fall back to full parse
+ * when tail doesn't have expected structure.
+ */
+@SuppressWarnings("WeakerAccess")
+class ReportTail {
+
+    /**
+     * Enough for totals of all known reports
+     */
+    static final int TAIL_SIZE = 16 * 1024;
+
+    private static final Pattern LAST_ELEMENT_PATTERN = Pattern.compile("(<[^<>]*>)\\s*\\z");
+
+    private String text;
+
+    private ReportTail(final String text) {
+        this.text = text;
+    }
+
+    static ReportTail read(final String filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            final long position = Math.max(0, channel.size() - TAIL_SIZE);
+            final ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - position));
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+                // read till end of file
+            }
+            buffer.flip();
+            // attributes which we need are ASCII, so any multibyte char could be safely read as Latin-1
+            return new ReportTail(StandardCharsets.ISO_8859_1.decode(buffer).toString());
+        }
+    }
+
+    /**
+     * Remove last element if it's closing tag of element with name.
+     *
+     * @return <code>true</code> if removed
+     */
+    boolean removeEnd(final String name) {
+        final Matcher matcher = LAST_ELEMENT_PATTERN.matcher(text);
+        if (!matcher.find() || !matcher.group(1).matches("</" + name + "\\s*>")) return false;
+        text = text.substring(0, matcher.start());
+        return true;
+    }
+
+    /**
+     * Remove all empty elements with name from end, for example: <code>&lt;counter .../&gt;</code>
+     *
+     * @return removed elements in document order, empty if last element has other name
+     * or tail could be started in the middle of them
+     */
+    List<String> removeEmptyElements(final String name) {
+        final Pattern elementPattern = Pattern.compile("<" + name + "(\\s[^<>]*)?/>");
+        final List<String> elements = new ArrayList<>();
+        while (true) {
+            final Matcher matcher = LAST_ELEMENT_PATTERN.matcher(text);
+            if (!matcher.find()) return Collections.emptyList();
+            if (!elementPattern.matcher(matcher.group(1)).matches()) break;
+            elements.add(0, matcher.group(1));
+            text = text.substring(0, matcher.start());
+        }
+        return elements;
+    }
+
+    /**
+     * @return attribute value or <code>null</code> if element doesn't have it
+     */
+    static String getAttribute(final String element, final String name) {
+        final Matcher matcher = Pattern.compile("\\s" + name + "\\s*=\\s*(['\"])([^'\"]*)\\1").matcher(element);
+        return matcher.find() ? matcher.group(2) : null;
+    }
+
+}
@@ -17,14 +17,39 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+
+import java.io.File;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class ServiceRegistry {
 
+    private static final Logger LOGGER = Logger.getLogger(ServiceRegistry.class.getName());
+
     private static MasterCoverageRepository masterCoverageRepository;
     private static CoverageRepository coverageRepository;
     private static SettingsRepository settingsRepository;
     private static PullRequestRepository pullRequestRepository;
+    private static MasterCoverageStore masterCoverageStore;
+    private static MasterModuleCoverageStore masterModuleCoverageStore;
+    private static PublicationQueue publicationQueue;
+    private static SonarProjectKeyStore sonarProjectKeyStore;
+
+    private static final int PUBLICATION_WORKERS = 4;
+    private static final int PUBLICATION_ATTEMPTS = 5;
+    private static final long PUBLICATION_BACKOFF = TimeUnit.SECONDS.toMillis(2);
+
+    private static final PullRequestRepository GIT_HUB_PULL_REQUEST_REPOSITORY = new GitHubPullRequestRepository();
 
     public static MasterCoverageRepository getMasterCoverageRepository(PrintStream buildLog, final String login, final String password) {
         if (masterCoverageRepository != null) return masterCoverageRepository;
@@ -33,14 +58,16 @@ public class ServiceRegistry {
             final String sonarUrl = Configuration.getSonarUrl();
             if (login != null && password != null) {
                 buildLog.println("take master coverage from sonar by login/password");
-                return new SonarMasterCoverageRepository(sonarUrl, login, password, buildLog);
+                return new SonarMasterCoverageRepository(sonarUrl, login, password, buildLog, getSonarProjectKeyStore());
             }
             if (Configuration.getSonarToken() != null) {
                 buildLog.println("take master coverage from sonar by token");
-                return new SonarMasterCoverageRepository(sonarUrl, Configuration.getSonarToken(), "", buildLog);
+                return new SonarMasterCoverageRepository(sonarUrl, Configuration.getSonarToken(), "", buildLog,
+                        getSonarProjectKeyStore(), true);
             }
             buildLog.println("take master coverage from sonar by login/password");
-            return new SonarMasterCoverageRepository(sonarUrl, Configuration.getSonarLogin(), Configuration.getSonarPassword(), buildLog);
+            return new SonarMasterCoverageRepository(sonarUrl, Configuration.getSonarLogin(), Configuration.getSonarPassword(), buildLog,
+                    getSonarProjectKeyStore(), true);
         } else {
             buildLog.println("use default coverage repo");
             return new BuildMasterCoverageRepository(buildLog);
@@ -53,10 +80,11 @@ public class ServiceRegistry {
 
     public static CoverageRepository getCoverageRepository(
             final boolean disableSimpleCov,
-            final String jacocoCoverageCounter
+            final String jacocoCoverageCounter,
+            final int parserThreads
     ) {
         return coverageRepository != null ? coverageRepository
-                : new GetCoverageCallable(disableSimpleCov, jacocoCoverageCounter);
+                : new GetCoverageCallable(disableSimpleCov, jacocoCoverageCounter, parserThreads);
     }
 
     public static void setCoverageRepository(CoverageRepository coverageRepository) {
@@ -72,10 +100,95 @@ public class ServiceRegistry {
     }
 
     public static PullRequestRepository getPullRequestRepository() {
-        return pullRequestRepository != null ? pullRequestRepository : new GitHubPullRequestRepository();
+        return pullRequestRepository != null ? pullRequestRepository : GIT_HUB_PULL_REQUEST_REPOSITORY;
     }
 
     public static void setPullRequestRepository(PullRequestRepository pullRequestRepository) {
         ServiceRegistry.pullRequestRepository = pullRequestRepository;
     }
+
+    public static synchronized MasterCoverageStore getMasterCoverageStore() {
+        if (masterCoverageStore == null) {
+            masterCoverageStore = new MasterCoverageStore(
+                    new File(Jenkins.get().getRootDir(), MasterCoverageStore.DIR_NAME), Timer.get());
+            migrateLegacyCoverage(masterCoverageStore);
+        }
+        masterCoverageStore.setFlushDelay(
+                TimeUnit.SECONDS.toMillis(getSettingsRepository().getMasterCoverageFlushDelay()));
+        return masterCoverageStore;
+    }
+
+    /**
+     * Legacy coverage is removed from configuration only when it's written by store,
+     * otherwise it's migrated again on next start.
+     */
+    private static void migrateLegacyCoverage(final MasterCoverageStore store) {
+        final Map<String, Float> legacy = Configuration.DESCRIPTOR.getLegacyCoverageByRepo();
+        if (legacy.isEmpty()) return;
+        try {
+            store.migrate(legacy);
+        } catch (UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Can't migrate master coverage of " + legacy.size()
+                    + " repositories, it will be migrated on next start", e);
+            return;
+        }
+        Configuration.DESCRIPTOR.clearLegacyCoverageByRepo();
+    }
+
+    /**
+     * Write master coverage collected by {@link MasterCoverageStore} and {@link MasterModuleCoverageStore}
+     * before Jenkins is stopped
+     */
+    @Terminator
+    public static synchronized void flushMasterCoverageStore() {
+        try {
+            if (masterCoverageStore != null) masterCoverageStore.flush();
+        } finally {
+            if (masterModuleCoverageStore != null) masterModuleCoverageStore.flush();
+        }
+    }
+
+    public static synchronized void setMasterCoverageStore(MasterCoverageStore masterCoverageStore) {
+        ServiceRegistry.masterCoverageStore = masterCoverageStore;
+    }
+
+    public static synchronized MasterModuleCoverageStore getMasterModuleCoverageStore() {
+        if (masterModuleCoverageStore == null) {
+            masterModuleCoverageStore = new MasterModuleCoverageStore(
+                    new File(Jenkins.get().getRootDir(), MasterModuleCoverageStore.DIR_NAME), Timer.get());
+        }
+        masterModuleCoverageStore.setFlushDelay(
+                TimeUnit.SECONDS.toMillis(getSettingsRepository().getMasterCoverageFlushDelay()));
+        return masterModuleCoverageStore;
+    }
+
+    public static synchronized void setMasterModuleCoverageStore(MasterModuleCoverageStore masterModuleCoverageStore) {
+        ServiceRegistry.masterModuleCoverageStore = masterModuleCoverageStore;
+    }
+
+    public static synchronized SonarProjectKeyStore getSonarProjectKeyStore() {
+        if (sonarProjectKeyStore == null) {
+            sonarProjectKeyStore = new SonarProjectKeyStore(
+                    new File(Jenkins.get().getRootDir(), SonarProjectKeyStore.FILE_NAME));
+        }
+        return sonarProjectKeyStore;
+    }
+
+    public static synchronized void setSonarProjectKeyStore(SonarProjectKeyStore sonarProjectKeyStore) {
+        ServiceRegistry.sonarProjectKeyStore = sonarProjectKeyStore;
+    }
+
+    public static synchronized PublicationQueue getPublicationQueue() {
+        if (publicationQueue == null) {
+            publicationQueue = new PublicationQueue(
+                    Executors.newFixedThreadPool(PUBLICATION_WORKERS,
+                            new NamingThreadFactory(new DaemonThreadFactory(), PublicationQueue.class.getSimpleName())),
+                    PUBLICATION_ATTEMPTS, PUBLICATION_BACKOFF);
+        }
+        return publicationQueue;
+    }
+
+    public static synchronized void setPublicationQueue(PublicationQueue publicationQueue) {
+        ServiceRegistry.publicationQueue = publicationQueue;
+    }
 }
@@ -18,6 +18,16 @@ interface SettingsRepository {
 
     boolean isDisableSimpleCov();
 
+    /**
+     * @return max number of threads to parse coverage reports, zero means number of processors
+     */
+    int getParserThreads();
+
+    /**
+     * @return seconds to collect master coverage updates before write to disk, zero means write immediately
+     */
+    int getMasterCoverageFlushDelay();
+
     String getSonarUrl();
 
     String getSonarToken();
@@ -1,39 +1,52 @@
 package com.github.terma.jenkins.githubprcoveragestatus;
 
-import com.jayway.jsonpath.JsonPathException;
-import org.apache.commons.io.FileUtils;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
  * <a href="https://github.com/vicentllongo/simplecov-json">SimpleCov JSON</a>
+ * <p>
+ * Report is streamed, per file coverage arrays are skipped, so memory doesn't depend on report size.
  */
 public class SimpleCovParser implements CoverageReportParser {
 
     private static final String METRIC_PATH = "$.metrics.covered_percent";
+    private static final String[] METRIC_FIELDS = {"metrics", "covered_percent"};
+    private static final String[] COVERED_LINES_FIELDS = {"metrics", "covered_lines"};
+    private static final String[] TOTAL_LINES_FIELDS = {"metrics", "total_lines"};
 
     @Override
     public float get(String simpleCovFilePath) {
-        final String content;
-        try {
-            content = FileUtils.readFileToString(new File(simpleCovFilePath));
+        return getCounters(simpleCovFilePath).getCoverage();
+    }
+
+    /**
+     * Coverage is covered percent of report, counters are lines
+     */
+    @Override
+    public CoverageCounters getCounters(String simpleCovFilePath) {
+        Double[] values;
+        try (InputStream inputStream = new FileInputStream(simpleCovFilePath)) {
+            values = JsonUtils.findNumbersInJson(inputStream, METRIC_FIELDS, COVERED_LINES_FIELDS, TOTAL_LINES_FIELDS);
+        } catch (JsonProcessingException e) {
+            values = new Double[3];
         } catch (IOException e) {
             throw new IllegalArgumentException(
                     "Can't read SimpleCov report by path: " + simpleCovFilePath);
         }
 
-        Double covered = extractValueFromPath(content);
-        return covered.floatValue() / 100;
-    }
-
-    private Double extractValueFromPath(String content) {
-        try {
-            return JsonUtils.findInJson(content, METRIC_PATH);
-        } catch (JsonPathException error) {
+        final Double covered = values[0];
+        if (covered == null) {
             throw new IllegalArgumentException("Strange SimpleCov report!\n" +
                     "Can't extract float value by JsonPath: " + METRIC_PATH + "\n" +
-                    "from:\n" + content);
+                    "from:\n" + Utils.readReportHead(simpleCovFilePath));
         }
+        final float coverage = covered.floatValue() / 100;
+        if (values[1] == null || values[2] == null) return CoverageCounters.ofCoverage(coverage);
+        final long coveredLines = values[1].longValue();
+        return new CoverageCounters(coverage, coveredLines, values[2].longValue() - coveredLines);
     }
 }
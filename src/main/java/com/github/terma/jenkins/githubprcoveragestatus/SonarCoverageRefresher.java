@@ -0,0 +1,52 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+/**
+ * Keep master coverage of recently built repositories in cache when it's taken from Sonar
+ * by global credentials, see {@link SonarMasterCoverageRepository#refreshHotRepositories()}
+ */
+@SuppressWarnings("unused")
+@Extension
+public class SonarCoverageRefresher extends AsyncPeriodicWork {
+
+    public SonarCoverageRefresher() {
+        super("GitHub PR Coverage Status Sonar refresher");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return SonarMasterCoverageRepository.REFRESH_PERIOD;
+    }
+
+    @Override
+    protected void execute(final TaskListener listener) {
+        if (!ServiceRegistry.getSettingsRepository().isUseSonarForMasterCoverage()) return;
+        // without job credentials repository is created by global ones
+        final MasterCoverageRepository repository =
+                ServiceRegistry.getMasterCoverageRepository(listener.getLogger(), null, null);
+        if (repository instanceof SonarMasterCoverageRepository) {
+            ((SonarMasterCoverageRepository) repository).refreshHotRepositories();
+        }
+    }
+
+}
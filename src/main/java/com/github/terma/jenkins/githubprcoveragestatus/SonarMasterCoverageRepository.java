@@ -20,7 +20,10 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.Util;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.auth.BasicScheme;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
@@ -29,50 +32,331 @@ import org.apache.commons.httpclient.auth.AuthScope;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
 
 import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
 import static org.apache.commons.httpclient.HttpStatus.SC_BAD_REQUEST;
+import static org.apache.commons.httpclient.HttpStatus.SC_NOT_FOUND;
 
+/**
+ * Repository is created for each build, so HTTP client with pool of keep-alive connections
+ * and master coverage are shared by all repositories. Coverage is cached for a short time by Sonar URL,
+ * credentials and repository name. Builds which miss cache while coverage of the same key is being taken
+ * wait for that request, so concurrent builds of the same repository call Sonar once.
+ * <p>
+ * Coverage of many repositories is taken by one request. Repositories requested recently
+ * by global credentials are refreshed in background by {@link SonarCoverageRefresher}, so their builds
+ * find coverage in cache. Credentials supplied by job are never kept after build.
+ */
 @SuppressWarnings("WeakerAccess")
 public class SonarMasterCoverageRepository implements MasterCoverageRepository {
 
     private static final String SONAR_SEARCH_PROJECTS_API_PATH = "/api/projects/index";
     private static final String SONAR_COMPONENT_MEASURE_API_PATH = "/api/measures/component";
+    private static final String SONAR_SEARCH_MEASURES_API_PATH = "/api/measures/search";
+    /**
+     * Max number of project keys in one search of measures supported by Sonar
+     */
+    private static final int SEARCH_MEASURES_BATCH_SIZE = 100;
     public static final String SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME = "coverage";
 
+    private static final int MAX_CONNECTIONS = 20;
+    /**
+     * Hanging Sonar should fail build step in bounded time instead of holding pool connections forever
+     */
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+    private static final long POOL_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * Waiting for request of other build, it's bounded by pool, connect and read timeouts of that request
+     */
+    private static final long IN_FLIGHT_TIMEOUT = POOL_TIMEOUT + CONNECT_TIMEOUT + 2L * READ_TIMEOUT;
+    private static final long COVERAGE_TTL = TimeUnit.MINUTES.toMillis(1);
+    private static final int COVERAGE_CACHE_SIZE = 1000;
+    static final long REFRESH_PERIOD = COVERAGE_TTL / 2;
+    /**
+     * Repository is not refreshed if its coverage was not requested for that time
+     */
+    private static final long HOT_TTL = TimeUnit.MINUTES.toMillis(30);
+
+    private static final HttpClient HTTP_CLIENT = createHttpClient();
+    private static final TtlCache<String, Float> COVERAGE_CACHE = new TtlCache<>(COVERAGE_TTL, COVERAGE_CACHE_SIZE);
+    /**
+     * Requests of coverage not cached yet by cache key, concurrent builds wait for the same request
+     */
+    private static final Map<String, FutureTask<Float>> IN_FLIGHT = new ConcurrentHashMap<>();
+    /**
+     * Time of last request by repository URL by Sonar URL, only for repositories requested by global credentials
+     */
+    private static final Map<String, Map<String, Long>> HOT_REPOSITORIES = new ConcurrentHashMap<>();
+
     private final String sonarUrl;
     private final String login;
-    private final HttpClient httpClient;
+    private final String credentialsDigest;
+    private final SonarProjectKeyStore projectKeys;
+    private final boolean globalCredentials;
+    private final HttpState httpState = new HttpState();
     private final ObjectMapper objectMapper = new ObjectMapper().disable(FAIL_ON_UNKNOWN_PROPERTIES);
     private PrintStream buildLog;
 
     public SonarMasterCoverageRepository(String sonarUrl, String login, String password, PrintStream buildLog) {
+        this(sonarUrl, login, password, buildLog, new SonarProjectKeyStore(null));
+    }
+
+    public SonarMasterCoverageRepository(
+            String sonarUrl, String login, String password, PrintStream buildLog, SonarProjectKeyStore projectKeys) {
+        this(sonarUrl, login, password, buildLog, projectKeys, false);
+    }
+
+    /**
+     * @param globalCredentials - login and password are from global configuration, so requested repositories
+     *                          could be refreshed in background by them
+     */
+    public SonarMasterCoverageRepository(
+            String sonarUrl, String login, String password, PrintStream buildLog, SonarProjectKeyStore projectKeys,
+            boolean globalCredentials) {
         this.sonarUrl = sonarUrl;
         this.login = login;
+        this.credentialsDigest = getCredentialsDigest(login, password);
         this.buildLog = buildLog;
-        httpClient = new HttpClient();
+        this.projectKeys = projectKeys;
+        this.globalCredentials = globalCredentials;
         if (login != null) {
-            httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(login, password));
+            httpState.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(login, password));
         }
     }
 
+    private static HttpClient createHttpClient() {
+        final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS);
+        connectionManager.getParams().setMaxTotalConnections(MAX_CONNECTIONS);
+        connectionManager.getParams().setConnectionTimeout(CONNECT_TIMEOUT);
+        connectionManager.getParams().setSoTimeout(READ_TIMEOUT);
+        final HttpClient httpClient = new HttpClient(connectionManager);
+        httpClient.getParams().setConnectionManagerTimeout(POOL_TIMEOUT);
+        return httpClient;
+    }
+
+    static void clearCache() {
+        COVERAGE_CACHE.clear();
+        HOT_REPOSITORIES.clear();
+    }
+
+    /**
+     * Take coverage of repositories recently requested from the same Sonar again, so it's always in cache.
+     * Repository should be created with global credentials.
+     */
+    void refreshHotRepositories() {
+        final long now = System.currentTimeMillis();
+        // Sonar URL could be changed in global configuration
+        HOT_REPOSITORIES.keySet().retainAll(Collections.singleton(sonarUrl));
+        final Map<String, Long> lastRequests = HOT_REPOSITORIES.get(sonarUrl);
+        if (lastRequests == null) return;
+
+        final List<String> gitHubRepoUrls = new ArrayList<>();
+        final Iterator<Map.Entry<String, Long>> requests = lastRequests.entrySet().iterator();
+        while (requests.hasNext()) {
+            final Map.Entry<String, Long> request = requests.next();
+            if (request.getValue() + HOT_TTL < now) requests.remove();
+            else gitHubRepoUrls.add(request.getKey());
+        }
+        if (gitHubRepoUrls.isEmpty()) {
+            HOT_REPOSITORIES.remove(sonarUrl, lastRequests);
+            return;
+        }
+
+        get(gitHubRepoUrls, true);
+    }
+
     @Override
     public float get(final String gitHubRepoUrl) {
         final String repoName = GitUtils.getRepoName(gitHubRepoUrl);
         log("Getting coverage for Git Repo URL: %s by repo name: %s", gitHubRepoUrl, repoName);
+        markHot(gitHubRepoUrl);
+        final String cacheKey = getCacheKey(repoName);
+        final Float cached = COVERAGE_CACHE.get(cacheKey);
+        if (cached != null) {
+            log("Found cached coverage for repo name %s - %s", repoName, cached);
+            return cached;
+        }
+
+        final FutureTask<Float> task = new FutureTask<>(new Callable<Float>() {
+            @Override
+            public Float call() throws Exception {
+                final float coverage = getCoverage(repoName);
+                COVERAGE_CACHE.put(cacheKey, coverage);
+                return coverage;
+            }
+        });
+        final FutureTask<Float> inFlight = IN_FLIGHT.putIfAbsent(cacheKey, task);
+        if (inFlight == null) {
+            try {
+                task.run();
+            } finally {
+                IN_FLIGHT.remove(cacheKey, task);
+            }
+        } else {
+            log("Waiting for coverage of repo name %s requested by other build", repoName);
+        }
+
         try {
-            final SonarProject sonarProject = getSonarProject(repoName);
-            return getCoverageMeasure(sonarProject);
-        } catch (Exception e) {
+            return (inFlight == null ? task : inFlight).get(IN_FLIGHT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log("Timeout waiting for master coverage for %s", gitHubRepoUrl);
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log("Interrupted while getting master coverage for %s", gitHubRepoUrl);
+            return 0;
+        } catch (ExecutionException e) {
             log("Failed to get master coverage for %s", gitHubRepoUrl);
-            log("Exception message '%s'", e);
-            e.printStackTrace(buildLog);
+            log("Exception message '%s'", e.getCause());
+            e.getCause().printStackTrace(buildLog);
             return 0;
         }
     }
 
+    @Override
+    public Map<String, Float> get(final Collection<String> gitHubRepoUrls) {
+        return get(gitHubRepoUrls, false);
+    }
+
+    /**
+     * Take project keys of all repositories (usually stored) then coverage of all of them by one
+     * search of measures. If coverage is not found by project key, repository coverage is taken one by one.
+     *
+     * @param refresh - ignore cached coverage, time of last request of repositories is not changed
+     */
+    private Map<String, Float> get(final Collection<String> gitHubRepoUrls, final boolean refresh) {
+        final Map<String, Float> coverages = new HashMap<>();
+        final Map<String, String> projectKeysByUrl = new LinkedHashMap<>();
+        for (String gitHubRepoUrl : gitHubRepoUrls) {
+            final String repoName = GitUtils.getRepoName(gitHubRepoUrl);
+            if (!refresh) {
+                markHot(gitHubRepoUrl);
+                final Float cached = COVERAGE_CACHE.get(getCacheKey(repoName));
+                if (cached != null) {
+                    coverages.put(gitHubRepoUrl, cached);
+                    continue;
+                }
+            }
+
+            try {
+                final String storedProjectKey = projectKeys.get(sonarUrl, repoName);
+                projectKeysByUrl.put(gitHubRepoUrl,
+                        storedProjectKey != null ? storedProjectKey : searchProjectKey(repoName));
+            } catch (SonarProjectRetrievalException e) {
+                log("Failed to get master coverage for %s", gitHubRepoUrl);
+                log("Exception message '%s'", e);
+                coverages.put(gitHubRepoUrl, 0f);
+            }
+        }
+
+        final Map<String, Float> coveragesByProjectKey = new HashMap<>();
+        final List<String> keys = new ArrayList<>(new LinkedHashSet<>(projectKeysByUrl.values()));
+        for (int i = 0; i < keys.size(); i += SEARCH_MEASURES_BATCH_SIZE) {
+            final List<String> batch = keys.subList(i, Math.min(keys.size(), i + SEARCH_MEASURES_BATCH_SIZE));
+            try {
+                coveragesByProjectKey.putAll(getCoverageMeasures(batch));
+            } catch (SonarCoverageMeasureRetrievalException e) {
+                log("Exception message '%s'", e);
+            }
+        }
+
+        for (Map.Entry<String, String> projectKeyByUrl : projectKeysByUrl.entrySet()) {
+            final String gitHubRepoUrl = projectKeyByUrl.getKey();
+            final Float coverage = coveragesByProjectKey.get(projectKeyByUrl.getValue());
+            if (coverage != null) {
+                COVERAGE_CACHE.put(getCacheKey(GitUtils.getRepoName(gitHubRepoUrl)), coverage);
+                coverages.put(gitHubRepoUrl, coverage);
+            } else if (!refresh) {
+                // stored project key could be outdated
+                coverages.put(gitHubRepoUrl, get(gitHubRepoUrl));
+            }
+        }
+        return coverages;
+    }
+
+    private String getCacheKey(final String repoName) {
+        return sonarUrl + "|" + credentialsDigest + "|" + repoName;
+    }
+
+    /**
+     * Coverage taken by valid credentials should not be given to build with the same login and wrong password,
+     * digest is used to not keep password in cache key
+     */
+    private static String getCredentialsDigest(final String login, final String password) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(login).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void markHot(final String gitHubRepoUrl) {
+        // job credentials are not kept, so such repository can't be refreshed
+        if (!globalCredentials) return;
+        Map<String, Long> lastRequests = HOT_REPOSITORIES.get(sonarUrl);
+        if (lastRequests == null) {
+            final Map<String, Long> created = new ConcurrentHashMap<>();
+            lastRequests = HOT_REPOSITORIES.putIfAbsent(sonarUrl, created);
+            if (lastRequests == null) lastRequests = created;
+        }
+        lastRequests.put(gitHubRepoUrl, System.currentTimeMillis());
+    }
+
+    /**
+     * Take coverage by stored project key, search project only if key is not stored
+     * or Sonar doesn't find project by it (project could be renamed). Stored key is kept on other errors,
+     * they could be transient.
+     */
+    private float getCoverage(final String repoName)
+            throws SonarProjectRetrievalException, SonarCoverageMeasureRetrievalException {
+        final String storedProjectKey = projectKeys.get(sonarUrl, repoName);
+        if (storedProjectKey != null) {
+            try {
+                return getCoverageMeasure(storedProjectKey);
+            } catch (SonarCoverageMeasureRetrievalException e) {
+                if (!e.isProjectNotFound()) throw e;
+                log("Project not found by stored project key %s, searching project again", storedProjectKey);
+                projectKeys.remove(sonarUrl, repoName);
+            }
+        }
+
+        return getCoverageMeasure(searchProjectKey(repoName));
+    }
+
+    private String searchProjectKey(final String repoName) throws SonarProjectRetrievalException {
+        final String projectKey = getSonarProject(repoName).getKey();
+        if (projectKey == null) {
+            throw new SonarProjectRetrievalException("Sonar project found for repo " + repoName + " has no key");
+        }
+        projectKeys.put(sonarUrl, repoName, projectKey);
+        return projectKey;
+    }
+
     /**
      * Try to find the project in sonarqube based on the repo name from the git uri
      *
@@ -82,8 +366,8 @@ public class SonarMasterCoverageRepository implements MasterCoverageRepository {
     private SonarProject getSonarProject(final String repoName) throws SonarProjectRetrievalException {
         try {
             final String searchUri = sonarUrl + SONAR_SEARCH_PROJECTS_API_PATH + "?search=" + repoName;
-            final GetMethod method = executeGetRequest(searchUri);
-            final List<SonarProject> sonarProjects = objectMapper.readValue(method.getResponseBodyAsStream(), new TypeReference<List<SonarProject>>() {
+            final String response = executeGetRequest(searchUri);
+            final List<SonarProject> sonarProjects = objectMapper.readValue(response, new TypeReference<List<SonarProject>>() {
             });
 
             if (sonarProjects.isEmpty()) {
@@ -106,27 +390,57 @@ public class SonarMasterCoverageRepository implements MasterCoverageRepository {
      * @return the coverage found for the project
      * @throws SonarCoverageMeasureRetrievalException if an error occurred during retrieval of the coverage
      */
-    private float getCoverageMeasure(SonarProject project) throws SonarCoverageMeasureRetrievalException {
-        final String uri = MessageFormat.format("{0}{1}?componentKey={2}&metricKeys={3}", sonarUrl, SONAR_COMPONENT_MEASURE_API_PATH, URLEncoder.encode(project.getKey()), SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME);
+    private float getCoverageMeasure(String projectKey) throws SonarCoverageMeasureRetrievalException {
+        final String uri = MessageFormat.format("{0}{1}?componentKey={2}&metricKeys={3}", sonarUrl, SONAR_COMPONENT_MEASURE_API_PATH, URLEncoder.encode(projectKey), SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME);
         try {
-            final GetMethod method = executeGetRequest(uri);
-            String value = JsonUtils.findInJson(method.getResponseBodyAsString(), "component.measures[0].value");
+            final String response = executeGetRequest(uri);
+            String value = JsonUtils.findInJson(response, "component.measures[0].value");
             return Float.parseFloat(value) / 100;
         } catch (Exception e) {
-            throw new SonarCoverageMeasureRetrievalException(String.format("failed to get coverage measure for sonar project %s - %s", project.getKey(), e.getMessage()), e);
+            throw new SonarCoverageMeasureRetrievalException(String.format("failed to get coverage measure for sonar project %s - %s", projectKey, e.getMessage()), e);
         }
     }
 
-    private GetMethod executeGetRequest(String uri) throws IOException, HttpClientException {
-        final GetMethod method = new GetMethod(uri);
-        if (login != null) {
-            method.getHostAuthState().setAuthScheme(new BasicScheme());
+    /**
+     * @return coverage by project key, project without coverage measure is skipped
+     */
+    private Map<String, Float> getCoverageMeasures(final List<String> keys)
+            throws SonarCoverageMeasureRetrievalException {
+        final String joinedKeys = String.join(",", keys);
+        final String uri = MessageFormat.format("{0}{1}?projectKeys={2}&metricKeys={3}", sonarUrl, SONAR_SEARCH_MEASURES_API_PATH, URLEncoder.encode(joinedKeys), SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME);
+        try {
+            final SonarMeasures sonarMeasures = objectMapper.readValue(executeGetRequest(uri), SonarMeasures.class);
+            final Map<String, Float> coverages = new HashMap<>();
+            if (sonarMeasures.measures == null) return coverages;
+            for (SonarMeasure measure : sonarMeasures.measures) {
+                if (SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME.equals(measure.metric) && measure.value != null) {
+                    coverages.put(measure.component, Float.parseFloat(measure.value) / 100);
+                }
+            }
+            return coverages;
+        } catch (Exception e) {
+            throw new SonarCoverageMeasureRetrievalException(String.format("failed to search coverage measures for sonar projects %s - %s", joinedKeys, e.getMessage()), e);
         }
-        int status = httpClient.executeMethod(method);
-        if (status >= SC_BAD_REQUEST) {
-            throw new HttpClientException(uri, status, method.getResponseBodyAsString());
+    }
+
+    /**
+     * @return response body, connection is released to pool
+     */
+    private String executeGetRequest(String uri) throws IOException, HttpClientException {
+        final GetMethod method = new GetMethod(uri);
+        try {
+            if (login != null) {
+                method.getHostAuthState().setAuthScheme(new BasicScheme());
+            }
+            int status = HTTP_CLIENT.executeMethod(null, method, httpState);
+            final String response = method.getResponseBodyAsString();
+            if (status >= SC_BAD_REQUEST) {
+                throw new HttpClientException(uri, status, response);
+            }
+            return response;
+        } finally {
+            method.releaseConnection();
         }
-        return method;
     }
 
     private void log(String format, Object... arguments) {
@@ -135,8 +449,11 @@ public class SonarMasterCoverageRepository implements MasterCoverageRepository {
     }
 
     private static class HttpClientException extends Exception {
+        private final int status;
+
         HttpClientException(String uri, int status, String reason) {
             super("request to " + uri + " failed with " + status + " reason " + reason);
+            this.status = status;
         }
     }
 
@@ -158,6 +475,20 @@ public class SonarMasterCoverageRepository implements MasterCoverageRepository {
         }
     }
 
+    private static class SonarMeasures {
+        @JsonProperty("measures")
+        List<SonarMeasure> measures;
+    }
+
+    private static class SonarMeasure {
+        @JsonProperty("component")
+        String component;
+        @JsonProperty("metric")
+        String metric;
+        @JsonProperty("value")
+        String value;
+    }
+
     private static class SonarProjectRetrievalException extends Exception {
         private SonarProjectRetrievalException(String message) {
             super(message);
@@ -173,5 +504,12 @@ public class SonarMasterCoverageRepository implements MasterCoverageRepository {
         private SonarCoverageMeasureRetrievalException(String message, Throwable cause) {
             super(message, cause);
         }
+
+        /**
+         * @return <code>true</code> if Sonar answered that project doesn't exist
+         */
+        boolean isProjectNotFound() {
+            return getCause() instanceof HttpClientException && ((HttpClientException) getCause()).status == SC_NOT_FOUND;
+        }
     }
 }
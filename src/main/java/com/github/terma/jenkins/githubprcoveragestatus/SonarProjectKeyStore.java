@@ -0,0 +1,124 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sonar project key found for repository name, search of project is slow for big Sonar instances
+ * and mapping practically never changes, so it's kept in file and survives restart.
+ * <p>
+ * Mapping is removed when Sonar doesn't find project by stored key (project renamed or removed)
+ * or all mappings are cleared from global configuration.
+ */
+@SuppressWarnings("WeakerAccess")
+class SonarProjectKeyStore {
+
+    static final String FILE_NAME = "github-pr-coverage-status-sonar-projects.properties";
+
+    private static final Logger LOGGER = Logger.getLogger(SonarProjectKeyStore.class.getName());
+
+    private static final String SEPARATOR = "|";
+
+    private final File file;
+    private final Map<String, String> projectKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param file - file to keep mapping or <code>null</code> to keep it in memory only
+     */
+    SonarProjectKeyStore(final File file) {
+        this.file = file;
+        if (file == null || !file.isFile()) return;
+
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't read Sonar projects from " + file + ", they will be searched again", e);
+            return;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            projectKeys.put(key, properties.getProperty(key));
+        }
+    }
+
+    /**
+     * @return project key or <code>null</code> if not stored
+     */
+    public String get(final String sonarUrl, final String repoName) {
+        return projectKeys.get(getKey(sonarUrl, repoName));
+    }
+
+    /**
+     * @param projectKey - project key, nothing is stored if <code>null</code>
+     */
+    public void put(final String sonarUrl, final String repoName, final String projectKey) {
+        if (projectKey == null) return;
+        final String previous = projectKeys.put(getKey(sonarUrl, repoName), projectKey);
+        if (!projectKey.equals(previous)) save();
+    }
+
+    public void remove(final String sonarUrl, final String repoName) {
+        if (projectKeys.remove(getKey(sonarUrl, repoName)) != null) save();
+    }
+
+    public void clear() {
+        projectKeys.clear();
+        save();
+    }
+
+    public int size() {
+        return projectKeys.size();
+    }
+
+    private static String getKey(final String sonarUrl, final String repoName) {
+        return sonarUrl + SEPARATOR + repoName;
+    }
+
+    private synchronized void save() {
+        if (file == null) return;
+
+        final Properties properties = new Properties();
+        properties.putAll(projectKeys);
+
+        final File dir = file.getParentFile();
+        try {
+            final File temp = File.createTempFile(FILE_NAME, ".tmp", dir);
+            try (OutputStream outputStream = new FileOutputStream(temp)) {
+                properties.store(outputStream, null);
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't save Sonar projects to " + file, e);
+        }
+    }
+
+}
@@ -21,13 +21,22 @@ import hudson.EnvVars;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 @SuppressWarnings("WeakerAccess")
 class Utils {
 
     public static final String BUILD_URL_ENV_PROPERTY = "BUILD_URL";
 
+    /**
+     * Max part of report included to error message, reports could be hundreds of MB
+     */
+    private static final int REPORT_HEAD_FOR_MESSAGE = 64 * 1024;
+
     public static String getJenkinsUrlFromBuildUrl(String buildUrl) {
         final String keyword = "/job/";
         final int index = buildUrl.indexOf(keyword);
@@ -40,4 +49,24 @@ class Utils {
         return envVars.get(BUILD_URL_ENV_PROPERTY);
     }
 
+    /**
+     * Read beginning of report to show it in error message.
+     *
+     * @param filePath - path to report
+     * @return first {@link #REPORT_HEAD_FOR_MESSAGE} bytes of report or empty string if it can't be read
+     */
+    public static String readReportHead(final String filePath) {
+        try (InputStream inputStream = new FileInputStream(new File(filePath))) {
+            final byte[] buffer = new byte[REPORT_HEAD_FOR_MESSAGE];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
 }
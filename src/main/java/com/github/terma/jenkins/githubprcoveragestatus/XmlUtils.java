@@ -17,45 +17,35 @@ limitations under the License.
 */
 package com.github.terma.jenkins.githubprcoveragestatus;
 
-import org.w3c.dom.Document;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.StringReader;
-import java.nio.charset.StandardCharsets;
-
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * XML input factory is found by service loading, which is slow, so it's created once.
+ * Configured factory is thread safe to create readers.
+ */
 public class XmlUtils {
 
-    public static String findInXml(String xml, String xpath) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            builder.setEntityResolver(new EntityResolver() {
-                @Override
-                public InputSource resolveEntity(String publicId, String systemId)
-                        throws SAXException, IOException {
-//                    if (systemId.contains("foo.dtd")) {
-                    return new InputSource(new StringReader(""));
-//                    } else {
-//                        return null;
-//                    }
-                }
-            });
-            Document doc = builder.parse(new InputSource(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))));
-            XPathFactory xPathfactory = XPathFactory.newInstance();
-            XPathExpression expr = xPathfactory.newXPath().compile(xpath);
-            return (String) expr.evaluate(doc, XPathConstants.STRING);
-        } catch (Throwable t) {
-            throw new RuntimeException(t);
-        }
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * Create streaming reader which doesn't load DTD or external entities,
+     * so report is never materialized in memory and could be read till required element only.
+     *
+     * @param inputStream - XML content, caller is responsible to close it
+     * @return reader positioned at start of document
+     */
+    public static XMLStreamReader createStreamReader(InputStream inputStream) throws XMLStreamException {
+        return INPUT_FACTORY.createXMLStreamReader(inputStream);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
     }
 
 }
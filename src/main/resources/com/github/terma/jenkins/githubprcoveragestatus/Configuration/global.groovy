@@ -48,8 +48,22 @@ f.section(title: descriptor.displayName) {
         f.password()
     }
 
+    f.validateButton(title: _("Clear found Sonar projects"), progress: _("Clearing..."),
+            method: "clearSonarProjects")
+
     f.entry(field: "disableSimpleCov", title: _("Disable SimpleCov coverage parser")) {
         f.checkbox()
     }
 
+    f.entry(field: "parserThreads", title: _("Threads to parse coverage reports")) {
+        f.textbox()
+    }
+
+    f.entry(field: "masterCoverageFlushDelay", title: _("Master coverage write delay, seconds")) {
+        f.textbox()
+    }
+
+    f.validateButton(title: _("Show master coverage writes"), progress: _("Loading..."),
+            method: "showMasterCoverageWrites")
+
 }
@@ -18,10 +18,28 @@ limitations under the License.
 package com.github.terma.jenkins.githubprcoveragestatus;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 
 public class CloverParserTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String writeReport(String... lines) throws IOException {
+        File file = temporaryFolder.newFile("clover.xml");
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            for (String line : lines) writer.println(line);
+        }
+        return file.getPath();
+    }
+
     @Test
     public void extractCoverageFromCloverReport() {
         String filePath = CloverParserTest.class.getResource(
@@ -54,4 +72,64 @@ public class CloverParserTest {
         Assert.assertEquals(0, new CloverParser().get(filePath), 0.1);
     }
 
+    @Test
+    public void extractCoverageFromProjectMetricsAtEndOfReportIgnoringFileAndClassMetrics() throws IOException {
+        String filePath = writeReport(
+                "<coverage generated=\"1\">",
+                "<project timestamp=\"1\">",
+                "<file name=\"A.php\">",
+                "<class name=\"A\"><metrics statements=\"10\" coveredstatements=\"10\"/></class>",
+                "<metrics statements=\"10\" coveredstatements=\"10\"/>",
+                "</file>",
+                "<metrics files=\"1\" statements=\"40\" coveredstatements=\"10\"/>",
+                "</project>",
+                "</coverage>");
+
+        CoverageCounters counters = new CloverParser().getCounters(filePath);
+
+        Assert.assertEquals(0.25, counters.getCoverage(), 0.001);
+        Assert.assertEquals(10, counters.getCovered());
+        Assert.assertEquals(30, counters.getMissed());
+    }
+
+    @Test
+    public void extractCoverageFromFirstProjectMetricsWhenTheyAreBeforePackages() throws IOException {
+        String filePath = writeReport(
+                "<coverage generated=\"1\" clover=\"4.4.1\">",
+                "<project timestamp=\"1\" name=\"app\">",
+                "<metrics statements=\"40\" coveredstatements=\"30\" packages=\"1\"/>",
+                "<package name=\"a\">",
+                "<metrics statements=\"10\" coveredstatements=\"1\"/>",
+                "<file name=\"A.java\">",
+                "<class name=\"A\"><metrics statements=\"10\" coveredstatements=\"1\"/></class>",
+                "<metrics statements=\"10\" coveredstatements=\"1\"/>",
+                "</file>",
+                "</package>",
+                "</project>",
+                "<testproject timestamp=\"1\" name=\"tests\">",
+                "<metrics statements=\"5\" coveredstatements=\"0\"/>",
+                "</testproject>",
+                "</coverage>");
+
+        CoverageCounters counters = new CloverParser().getCounters(filePath);
+
+        Assert.assertEquals(0.75, counters.getCoverage(), 0.001);
+        Assert.assertEquals(30, counters.getCovered());
+        Assert.assertEquals(10, counters.getMissed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwExceptionIfReportHasOnlyFileMetrics() throws IOException {
+        String filePath = writeReport(
+                "<coverage generated=\"1\">",
+                "<project timestamp=\"1\">",
+                "<file name=\"A.php\">",
+                "<metrics statements=\"10\" coveredstatements=\"10\"/>",
+                "</file>",
+                "</project>",
+                "</coverage>");
+
+        new CloverParser().get(filePath);
+    }
+
 }
@@ -18,10 +18,36 @@ limitations under the License.
 package com.github.terma.jenkins.githubprcoveragestatus;
 
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
 
 public class CoberturaParserTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private String writeReport(String beforeRoot, int packages) throws IOException {
+        File file = temporaryFolder.newFile("cobertura.xml");
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("<?xml version=\"1.0\"?>");
+            writer.println(beforeRoot);
+            writer.println("<coverage line-rate=\"0.8\" branch-rate=\"0.6\" lines-covered=\"80\" lines-valid=\"100\" " +
+                    "branches-covered=\"30\" branches-valid=\"50\" version=\"2.1.1\">");
+            writer.println("<packages>");
+            for (int i = 0; i < packages; i++) {
+                writer.println("<package name=\"p" + i + "\" line-rate=\"0.1\" branch-rate=\"0.1\" complexity=\"1\"/>");
+            }
+            writer.println("</packages>");
+            writer.println("</coverage>");
+        }
+        return file.getPath();
+    }
+
     @Test
     public void extractCoverageFromCoberturaReportAsLineRatePlusBranchRateDivByTwo() {
         String filePath = CoberturaParserTest.class.getResource(
@@ -76,4 +102,36 @@ public class CoberturaParserTest {
         new CoberturaParser().get(filePath);
     }
 
+    @Test
+    public void extractCoverageFromRootOfBigReportIgnoringPackageRates() throws IOException {
+        String filePath = writeReport("", 100000);
+
+        CoverageCounters counters = new CoberturaParser().getCounters(filePath);
+
+        Assert.assertEquals(0.7, counters.getCoverage(), 0.001);
+        Assert.assertEquals(110, counters.getCovered());
+        Assert.assertEquals(40, counters.getMissed());
+    }
+
+    @Test
+    public void extractCoverageWhenRootElementIsAfterDoctypeAndComments() throws IOException {
+        String filePath = writeReport("<!DOCTYPE coverage SYSTEM \"http://cobertura.sourceforge.net/xml/coverage-04.dtd\">\n" +
+                "<!-- " + repeat('c', 8 * 1024) + " -->", 10);
+
+        Assert.assertEquals(0.7, new CoberturaParser().get(filePath), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwExceptionIfRootElementIsBeyondHeader() throws IOException {
+        String filePath = writeReport("<!-- " + repeat('c', 16 * 1024) + " -->", 10);
+
+        new CoberturaParser().get(filePath);
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) builder.append(c);
+        return builder.toString();
+    }
+
 }
@@ -19,6 +19,7 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 
 import hudson.EnvVars;
 import hudson.model.Build;
+import hudson.model.Job;
 import hudson.model.Result;
 import hudson.model.TaskListener;
 import org.junit.Before;
@@ -28,7 +29,9 @@ import org.kohsuke.github.*;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.mockito.Mockito.*;
 
@@ -59,6 +62,7 @@ public class CompareCoverageActionTest {
     public void initMocks() throws IOException {
         ServiceRegistry.setMasterCoverageRepository(masterCoverageRepository);
         ServiceRegistry.setCoverageRepository(coverageRepository);
+        when(coverageRepository.getSummary(null)).thenReturn(CoverageSummary.EMPTY);
         ServiceRegistry.setSettingsRepository(settingsRepository);
         ServiceRegistry.setPullRequestRepository(pullRequestRepository);
         when(pullRequestRepository.getGitHubRepository(GIT_URL)).thenReturn(ghRepository);
@@ -87,6 +91,64 @@ public class CompareCoverageActionTest {
         verify(pullRequestRepository).comment(ghRepository, 12, "[![0% (0.0%) vs master 0%](aaa/coverage-status-icon/?coverage=0.0&masterCoverage=0.0)](aaa/job/a)");
     }
 
+    @Test
+    public void postModulesChangedVsMasterInComment() throws IOException, InterruptedException {
+        prepareBuildSuccess();
+        prepareEnvVars();
+        prepareCoverageData(0.5f, 0.75f);
+        when(masterCoverageRepository.getByModule(GIT_URL)).thenReturn(Collections.singletonMap("a", 0.5f));
+        when(coverageRepository.getSummary(null)).thenReturn(CoverageSummary.of(
+                Collections.singletonList("a"), Collections.singletonList(CoverageCounters.of(3, 1))));
+        coverageAction.setPublishResultAs("comment");
+
+        coverageAction.perform(build, null, null, listener);
+
+        verify(build).addOrReplaceAction(any(ModuleCoverageAction.class));
+        verify(pullRequestRepository).comment(ghRepository, 12, "[![75% (+25.0%) vs master 50%](aaa/coverage-status-icon/?coverage=0.75&masterCoverage=0.5)](aaa/job/a)\n\n" +
+                "| Module | Coverage | Change vs master |\n| --- | --- | --- |\n| a | 75% | +25.0% |");
+    }
+
+    @Test
+    public void publishInBackgroundCommentsOfDifferentJobsToSamePullRequest() throws IOException, InterruptedException {
+        prepareBuildSuccess();
+        prepareEnvVars();
+        ServiceRegistry.setPublicationQueue(new PublicationQueue(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 1, 0));
+        coverageAction.setPublishResultAs("comment");
+        coverageAction.setPublishInBackground(true);
+        Build otherBuild = mock(Build.class);
+        when(otherBuild.getResult()).thenReturn(Result.SUCCESS);
+        when(otherBuild.getEnvironment(any(TaskListener.class))).thenReturn(envVars);
+        Job otherJob = mock(Job.class);
+        when(otherJob.getFullName()).thenReturn("frontend");
+        doReturn(otherJob).when(otherBuild).getParent();
+
+        try {
+            coverageAction.perform(build, null, null, listener);
+            coverageAction.perform(otherBuild, null, null, listener);
+        } finally {
+            ServiceRegistry.setPublicationQueue(null);
+        }
+
+        verify(pullRequestRepository, times(2)).comment(eq(ghRepository), eq(12), anyString());
+    }
+
+    @Test
+    public void updateCoverageCommentInPullRequest() throws IOException, InterruptedException {
+        prepareBuildSuccess();
+        prepareEnvVars();
+        coverageAction.setPublishResultAs("updatedComment");
+
+        coverageAction.perform(build, null, null, listener);
+
+        verify(pullRequestRepository).updateComment(ghRepository, 12, "backend", "[![0% (0.0%) vs master 0%](aaa/coverage-status-icon/?coverage=0.0&masterCoverage=0.0)](aaa/job/a)");
+        verify(pullRequestRepository, never()).comment(any(GHRepository.class), anyInt(), anyString());
+    }
+
     @Test
     public void postResultAsStatusCheck() throws IOException, InterruptedException {
         prepareBuildSuccess();
@@ -105,6 +167,49 @@ public class CompareCoverageActionTest {
         );
     }
 
+    @Test
+    public void postResultAsStatusCheckToActualCommitWithoutListingCommits() throws IOException, InterruptedException {
+        prepareBuildSuccess();
+        prepareEnvVars();
+        prepareCommit();
+        when(envVars.get(PrIdAndUrlUtils.GIT_PR_ACTUAL_COMMIT_ENV_PROPERTY)).thenReturn("a1b2c3");
+        coverageAction.setPublishResultAs("statusCheck");
+
+        coverageAction.perform(build, null, null, listener);
+
+        verify(pullRequestRepository).createCommitStatus(
+                ghRepository,
+                "a1b2c3",
+                GHCommitState.SUCCESS,
+                "aaa/job/a",
+                "Coverage 0% changed 0.0% vs master 0%"
+        );
+        verify(pagedIterable, never()).asList();
+    }
+
+    @Test
+    public void postResultAsStatusCheckToPullRequestHead() throws IOException, InterruptedException {
+        prepareBuildSuccess();
+        prepareEnvVars();
+        GHPullRequest ghPullRequest = mock(GHPullRequest.class);
+        GHCommitPointer head = mock(GHCommitPointer.class);
+        when(ghRepository.getPullRequest(12)).thenReturn(ghPullRequest);
+        when(ghPullRequest.getHead()).thenReturn(head);
+        when(head.getSha()).thenReturn("d4e5f6");
+        coverageAction.setPublishResultAs("statusCheck");
+
+        coverageAction.perform(build, null, null, listener);
+
+        verify(pullRequestRepository).createCommitStatus(
+                ghRepository,
+                "d4e5f6",
+                GHCommitState.SUCCESS,
+                "aaa/job/a",
+                "Coverage 0% changed 0.0% vs master 0%"
+        );
+        verify(ghPullRequest, never()).listCommits();
+    }
+
     @Test
     public void postResultAsSuccessfulStatusCheck() throws IOException, InterruptedException {
         prepareBuildSuccess();
@@ -184,14 +289,17 @@ public class CompareCoverageActionTest {
     }
     
     private void prepareCoverageData(float masterCoverage, float prCoverage) throws IOException, InterruptedException {
-        when(masterCoverageRepository.get(GIT_URL)).thenReturn(masterCoverage);
-        when(coverageRepository.get(null)).thenReturn(prCoverage);
         initMocks();
+        when(masterCoverageRepository.get(GIT_URL)).thenReturn(masterCoverage);
+        when(coverageRepository.getSummary(null)).thenReturn(CoverageSummary.of(
+                Collections.singletonList(CoverageSummary.ROOT_MODULE),
+                Collections.singletonList(CoverageCounters.ofCoverage(prCoverage))));
     }
 
     private void prepareCommit() throws IOException {
         GHPullRequest ghPullRequest = mock(GHPullRequest.class);
         when(ghRepository.getPullRequest(12)).thenReturn(ghPullRequest);
+        when(pullRequestRepository.getPullRequest(ghRepository, 12)).thenReturn(ghPullRequest);
         when(ghPullRequest.listCommits()).thenReturn(pagedIterable);
         when(pagedIterable.asList()).thenReturn(commits);
         when(commit.getSha()).thenReturn("fh3k2l");
@@ -199,6 +307,9 @@ public class CompareCoverageActionTest {
 
     private void prepareBuildSuccess() throws IOException, InterruptedException {
         when(build.getResult()).thenReturn(Result.SUCCESS);
+        Job job = mock(Job.class);
+        when(job.getFullName()).thenReturn("backend");
+        doReturn(job).when(build).getParent();
         when(build.getEnvironment(any(TaskListener.class))).thenReturn(envVars);
     }
 
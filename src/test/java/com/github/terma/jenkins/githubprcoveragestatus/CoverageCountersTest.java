@@ -0,0 +1,69 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class CoverageCountersTest {
+
+    @Test
+    public void sumOfNothingIsZero() {
+        Assert.assertEquals(0, CoverageCounters.sum(Collections.<CoverageCounters>emptyList()), 0);
+    }
+
+    @Test
+    public void weightCoverageByTotal() {
+        Assert.assertEquals(0.99f, CoverageCounters.sum(Arrays.asList(
+                CoverageCounters.of(0, 10), CoverageCounters.of(990, 0))), 0.0001);
+    }
+
+    @Test
+    public void weightCoverageWhichIsNotCoveredToTotalByTotal() {
+        Assert.assertEquals(0.5f, CoverageCounters.sum(Arrays.asList(
+                new CoverageCounters(0.4f, 1, 2), new CoverageCounters(0.6f, 2, 1))), 0.0001);
+        Assert.assertEquals(0.55f, CoverageCounters.sum(Arrays.asList(
+                new CoverageCounters(0.4f, 1, 0), new CoverageCounters(0.6f, 2, 1))), 0.0001);
+    }
+
+    @Test
+    public void weightReportsOfDifferentFormatsByTotalInOwnUnits() {
+        // Jacoco instructions
+        CoverageCounters jacoco = CoverageCounters.of(9000, 1000);
+        // Cobertura lines and branches, coverage is average of line and branch rates
+        CoverageCounters cobertura = new CoverageCounters(0.5f, 600, 400);
+
+        Assert.assertEquals((0.9 * 10000 + 0.5 * 1000) / 11000, CoverageCounters.sum(Arrays.asList(jacoco, cobertura)), 0.0001);
+    }
+
+    @Test
+    public void averageCoverageIfAnyReportWithoutCounters() {
+        Assert.assertEquals(0.5f, CoverageCounters.sum(Arrays.asList(
+                CoverageCounters.of(0, 10), CoverageCounters.ofCoverage(1))), 0.0001);
+    }
+
+    @Test
+    public void averageCoverageIfReportsAreEmpty() {
+        Assert.assertEquals(0.5f, CoverageCounters.sum(Arrays.asList(
+                new CoverageCounters(0, 0, 0), new CoverageCounters(1, 0, 0))), 0.0001);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class CoverageSummaryTest {
+
+    private static byte[] serialize(CoverageSummary summary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(summary);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static CoverageSummary deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (CoverageSummary) in.readObject();
+        }
+    }
+
+    @Test
+    public void emptySummaryHasZeroCoverage() {
+        Assert.assertEquals(0, CoverageSummary.EMPTY.getCoverage(), 0);
+        Assert.assertEquals(0, CoverageSummary.EMPTY.size());
+    }
+
+    @Test
+    public void storeModuleOnceForAllReports() {
+        CoverageSummary summary = CoverageSummary.of(
+                Arrays.asList("a", "b", "a"),
+                Arrays.asList(CoverageCounters.of(1, 1), CoverageCounters.of(2, 0), CoverageCounters.ofCoverage(0.3f)));
+
+        Assert.assertEquals(Arrays.asList("a", "b"), summary.getModules());
+        Assert.assertEquals("a", summary.getModule(2));
+        Assert.assertEquals(0.3f, summary.getCounters(2).getCoverage(), 0);
+        Assert.assertFalse(summary.getCounters(2).hasCounters());
+    }
+
+    @Test
+    public void coverageIsSumOfReports() {
+        List<CoverageCounters> counters = Arrays.asList(CoverageCounters.of(1, 3), CoverageCounters.of(4, 0));
+
+        Assert.assertEquals(CoverageCounters.sum(counters),
+                CoverageSummary.of(Arrays.asList("a", "b"), counters).getCoverage(), 0);
+    }
+
+    @Test
+    public void mergeReportsOfModule() {
+        CoverageSummary summary = CoverageSummary.of(
+                Arrays.asList("a", "b", "a"),
+                Arrays.asList(CoverageCounters.of(1, 3), CoverageCounters.ofCoverage(0.2f), CoverageCounters.of(4, 0)));
+
+        Map<String, CoverageCounters> modules = summary.getModuleCounters();
+
+        Assert.assertEquals(Arrays.asList("a", "b"), new ArrayList<>(modules.keySet()));
+        Assert.assertEquals(0.625f, modules.get("a").getCoverage(), 0.0001);
+        Assert.assertEquals(5, modules.get("a").getCovered());
+        Assert.assertEquals(3, modules.get("a").getMissed());
+        Assert.assertFalse(modules.get("b").hasCounters());
+    }
+
+    @Test
+    public void keepCountersAfterSerialization() throws Exception {
+        CoverageSummary summary = CoverageSummary.of(
+                Arrays.asList("a", "b/c"),
+                Arrays.asList(CoverageCounters.of(Integer.MAX_VALUE * 3L, 0), CoverageCounters.ofCoverage(0.5f)));
+
+        CoverageSummary copy = deserialize(serialize(summary));
+
+        Assert.assertEquals(summary.getModules(), copy.getModules());
+        Assert.assertEquals(Integer.MAX_VALUE * 3L, copy.getCounters(0).getCovered());
+        Assert.assertEquals(0, copy.getCounters(0).getMissed());
+        Assert.assertEquals("b/c", copy.getModule(1));
+        Assert.assertFalse(copy.getCounters(1).hasCounters());
+        Assert.assertEquals(summary.getCoverage(), copy.getCoverage(), 0);
+    }
+
+    @Test
+    public void serializedReportTakesFewBytes() throws Exception {
+        List<String> modules = new ArrayList<>();
+        List<CoverageCounters> counters = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            modules.add("module-" + (i % 100));
+            counters.add(CoverageCounters.of(100, 20));
+        }
+        int empty = serialize(CoverageSummary.of(Collections.<String>emptyList(),
+                Collections.<CoverageCounters>emptyList())).length;
+
+        int size = serialize(CoverageSummary.of(modules, counters)).length - empty;
+
+        // 100 modules by about 10 bytes and 1000 reports by 7 bytes
+        Assert.assertTrue("size " + size, size < 100 * 12 + 1000 * 8);
+    }
+
+}
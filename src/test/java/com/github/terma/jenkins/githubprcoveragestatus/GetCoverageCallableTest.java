@@ -0,0 +1,112 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class GetCoverageCallableTest {
+
+    private static final String RESOURCES = "/com/github/terma/jenkins/githubprcoveragestatus/";
+
+    @Rule
+    public TemporaryFolder workspace = new TemporaryFolder();
+
+    private void copy(String resource, String target) throws IOException {
+        FileUtils.copyFile(
+                new File(GetCoverageCallableTest.class.getResource(RESOURCES + resource).getFile()),
+                new File(workspace.getRoot(), target));
+    }
+
+    @Test
+    public void returnZeroIfNoReports() throws Exception {
+        Assert.assertEquals(0, new GetCoverageCallable(false, "LINE", 2).invoke(workspace.getRoot(), null).getCoverage(), 0);
+    }
+
+    @Test
+    public void weightCoverageOfAllReportsFoundByOneScanBySize() throws Exception {
+        copy("JacocoParserTest/jacoco.xml", "module-a/target/site/jacoco/jacoco.xml");
+        copy("CoberturaParserTest/cobertura.xml", "module-b/cobertura.xml");
+        copy("CloverParserTest/clover.xml", "module-c/clover.xml");
+
+        final CoverageCounters jacoco = new JacocoParser("LINE").getCounters(new File(workspace.getRoot(), "module-a/target/site/jacoco/jacoco.xml").getPath());
+        final CoverageCounters cobertura = new CoberturaParser().getCounters(new File(workspace.getRoot(), "module-b/cobertura.xml").getPath());
+        final CoverageCounters clover = new CloverParser().getCounters(new File(workspace.getRoot(), "module-c/clover.xml").getPath());
+        final float expected = (jacoco.getCoverage() * jacoco.getTotal() + cobertura.getCoverage() * cobertura.getTotal()
+                + clover.getCoverage() * clover.getTotal()) / (jacoco.getTotal() + cobertura.getTotal() + clover.getTotal());
+
+        Assert.assertEquals(expected, new GetCoverageCallable(false, "LINE", 2).invoke(workspace.getRoot(), null).getCoverage(), 0.0001);
+        Assert.assertEquals(expected, new GetCoverageCallable(false, "LINE", 1).invoke(workspace.getRoot(), null).getCoverage(), 0.0001);
+    }
+
+    @Test
+    public void averageCoverageIfAnyReportHasNoCounters() throws Exception {
+        copy("JacocoParserTest/jacoco.xml", "module-a/jacoco.xml");
+        FileUtils.write(new File(workspace.getRoot(), "module-b/coverage.json"), "{\"metrics\":{\"covered_percent\":50}}");
+
+        final float expected = (new JacocoParser("LINE").get(new File(workspace.getRoot(), "module-a/jacoco.xml").getPath()) + 0.5f) / 2;
+
+        Assert.assertEquals(expected, new GetCoverageCallable(false, "LINE", 2).invoke(workspace.getRoot(), null).getCoverage(), 0.0001);
+    }
+
+    @Test
+    public void returnCountersOfEachReportWithModule() throws Exception {
+        copy("JacocoParserTest/jacoco.xml", "module-a/jacoco.xml");
+        copy("CloverParserTest/clover.xml", "module-a/clover.xml");
+        copy("CoberturaParserTest/cobertura.xml", "cobertura.xml");
+
+        final CoverageSummary summary = new GetCoverageCallable(false, "LINE", 2).invoke(workspace.getRoot(), null);
+
+        Assert.assertEquals(3, summary.size());
+        Assert.assertEquals(2, summary.getModules().size());
+        for (int i = 0; i < summary.size(); i++) {
+            final boolean root = summary.getModule(i).equals(CoverageSummary.ROOT_MODULE);
+            Assert.assertTrue(root || summary.getModule(i).equals("module-a"));
+            Assert.assertTrue(summary.getCounters(i).hasCounters());
+        }
+    }
+
+    @Test
+    public void moduleIsDirectoryOfReport() {
+        Assert.assertEquals(".", GetCoverageCallable.getModule("jacoco.xml"));
+        Assert.assertEquals("a/target", GetCoverageCallable.getModule("a/target/jacoco.xml"));
+        Assert.assertEquals("a/target", GetCoverageCallable.getModule("a\\target\\jacoco.xml"));
+    }
+
+    @Test
+    public void ignoreSimpleCovReportIfDisabled() throws Exception {
+        copy("CoberturaParserTest/cobertura.xml", "cobertura.xml");
+        copy("SimpleCovParserTest/coverage_invalid.json", "coverage.json");
+
+        Assert.assertEquals(0.94, new GetCoverageCallable(true, "LINE", 0).invoke(workspace.getRoot(), null).getCoverage(), 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void propagateParserException() throws Exception {
+        copy("JacocoParserTest/jacoco-no-line-tag.xml", "jacoco.xml");
+
+        new GetCoverageCallable(false, "LINE", 2).invoke(workspace.getRoot(), null);
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.kohsuke.github.GHRepository;
+
+import java.io.IOException;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GitHubPullRequestRepositoryTest {
+
+    private static final String GIT_HUB_URL = "https://github.com/user/repo";
+    private static final String REPO_PATH = "/repos/user/repo";
+
+    @ClassRule
+    public static WireMockRule wireMockRule = new WireMockRule(wireMockConfig().port(0));
+
+    private final GitHubPullRequestRepository repository = new GitHubPullRequestRepository();
+
+    @Before
+    public void beforeTest() {
+        final SettingsRepository settingsRepository = mock(SettingsRepository.class);
+        when(settingsRepository.getGitHubApiUrl()).thenReturn("http://localhost:" + wireMockRule.port());
+        when(settingsRepository.getPersonalAccessToken()).thenReturn("token");
+        ServiceRegistry.setSettingsRepository(settingsRepository);
+        GitHubPullRequestRepository.clearCache();
+
+        givenJson("/rate_limit", "{\"resources\":{" +
+                "\"core\":{\"limit\":5000,\"remaining\":4999,\"reset\":" + (System.currentTimeMillis() / 1000 + 3600) + "}," +
+                "\"search\":{\"limit\":30,\"remaining\":30,\"reset\":" + (System.currentTimeMillis() / 1000 + 60) + "}}}");
+        givenJson("/user", "{\"login\":\"bot\",\"id\":1,\"type\":\"User\"}");
+        givenJson(REPO_PATH, "{\"id\":1,\"name\":\"repo\",\"full_name\":\"user/repo\",\"owner\":{\"login\":\"user\",\"id\":2}}");
+        givenJson(REPO_PATH + "/pulls/12", pullRequest(12, "feature", "abc"));
+    }
+
+    @After
+    public void afterTest() {
+        ServiceRegistry.setSettingsRepository(null);
+        GitHubPullRequestRepository.clearCache();
+        wireMockRule.resetAll();
+    }
+
+    @Test
+    public void shareClientBetweenRepositoriesTillTokenIsChanged() throws IOException {
+        new GitHubPullRequestRepository().getGitHubRepository(GIT_HUB_URL);
+        new GitHubPullRequestRepository().getGitHubRepository(GIT_HUB_URL);
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH)));
+
+        when(ServiceRegistry.getSettingsRepository().getPersonalAccessToken()).thenReturn("new-token");
+        new GitHubPullRequestRepository().getGitHubRepository(GIT_HUB_URL);
+
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo(REPO_PATH)));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH))
+                .withHeader("Authorization", equalTo("token new-token")));
+    }
+
+    @Test
+    public void failWithoutCallingGitHubWhenRateLimitIsExceeded() {
+        givenJson("/rate_limit", "{\"resources\":{" +
+                "\"core\":{\"limit\":5000,\"remaining\":0,\"reset\":" + (System.currentTimeMillis() / 1000 + 3600) + "}," +
+                "\"search\":{\"limit\":30,\"remaining\":30,\"reset\":" + (System.currentTimeMillis() / 1000 + 60) + "}}}");
+
+        try {
+            repository.getGitHubRepository(GIT_HUB_URL);
+            Assert.fail("rate limit should be checked");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Exceeded rate limit"));
+        }
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo(REPO_PATH)));
+    }
+
+    @Test
+    public void takeRepositoryAndPullRequestFromCacheForNextBuilds() throws IOException {
+        final GHRepository gitHubRepository = repository.getGitHubRepository(GIT_HUB_URL);
+        Assert.assertSame(gitHubRepository, repository.getGitHubRepository(GIT_HUB_URL));
+        Assert.assertEquals(12, repository.getPullRequest(gitHubRepository, 12).getNumber());
+        Assert.assertEquals(12, repository.getPullRequest(gitHubRepository, 12).getNumber());
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH)));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls/12")));
+    }
+
+    @Test
+    public void updateCommentOfJobNextToCommentOfOtherJob() throws IOException {
+        givenJson(REPO_PATH + "/issues/12/comments", "[" +
+                comment(1, "bot", "frontend coverage", "frontend") + "," +
+                comment(2, "someone", "quoted coverage", "backend") + "," +
+                comment(3, "bot", "backend coverage", "backend") + "]");
+        givenCommentUpdate(3, "bot", "new backend coverage", "backend");
+
+        final GHRepository gitHubRepository = repository.getGitHubRepository(GIT_HUB_URL);
+        repository.updateComment(gitHubRepository, 12, "backend", "new backend coverage");
+
+        wireMockRule.verify(1, anyRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/comments/3"))
+                .withRequestBody(containing("new backend coverage"))
+                .withRequestBody(containing("github-pr-coverage-status:backend")));
+        wireMockRule.verify(0, anyRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/comments/1")));
+        wireMockRule.verify(0, anyRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/comments/2")));
+        wireMockRule.verify(0, postRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/12/comments")));
+    }
+
+    @Test
+    public void addCommentOfJobOnceAndUpdateItNextTime() throws IOException {
+        givenJson(REPO_PATH + "/issues/12/comments", "[" + comment(1, "bot", "frontend coverage", "frontend") + "]");
+        wireMockRule.stubFor(post(urlPathEqualTo(REPO_PATH + "/issues/12/comments"))
+                .willReturn(okJson(comment(4, "bot", "backend coverage", "backend"))));
+        givenCommentUpdate(4, "bot", "next backend coverage", "backend");
+
+        final GHRepository gitHubRepository = repository.getGitHubRepository(GIT_HUB_URL);
+        repository.updateComment(gitHubRepository, 12, "backend", "backend coverage");
+        repository.updateComment(gitHubRepository, 12, "backend", "next backend coverage");
+
+        wireMockRule.verify(1, postRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/12/comments"))
+                .withRequestBody(containing("github-pr-coverage-status:backend")));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/12/comments")));
+        wireMockRule.verify(1, anyRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/comments/4"))
+                .withRequestBody(containing("next backend coverage")));
+        wireMockRule.verify(0, anyRequestedFor(urlPathEqualTo(REPO_PATH + "/issues/comments/1")));
+    }
+
+    @Test
+    public void findPullRequestOfOwnerBranchOnceForAllBuildsOfCommit() throws IOException {
+        givenPullRequestsByHead("user:feature", "[" + pullRequest(12, "feature", "abc") + "]");
+
+        Assert.assertEquals(12, repository.getPullRequestFor(GIT_HUB_URL, "feature", "abc").getNumber());
+        Assert.assertEquals(12, repository.getPullRequestFor(GIT_HUB_URL, "feature", "abc").getNumber());
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls/12")));
+    }
+
+    @Test
+    public void findPullRequestOfForkByScanAndIndexOtherPullRequests() throws IOException {
+        givenPullRequestsByHead("user:patch", "[]");
+        givenPullRequestsByHead("user:other", "[]");
+        givenPullRequestsScan("[" + pullRequest(13, "patch", "def") + "," + pullRequest(14, "other", "ghi") + "]");
+        givenJson(REPO_PATH + "/pulls/14", pullRequest(14, "other", "ghi"));
+
+        Assert.assertEquals(13, repository.getPullRequestFor(GIT_HUB_URL, "patch", "def").getNumber());
+        Assert.assertEquals(14, repository.getPullRequestFor(GIT_HUB_URL, "other", "ghi").getNumber());
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls")).withQueryParam("sort", equalTo("updated")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls")).withQueryParam("head", equalTo("user:other")));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls/14")));
+    }
+
+    @Test
+    public void scanForksWhenPullRequestIsUpdatedAfterPreviousScan() throws IOException {
+        givenPullRequestsByHead("user:patch", "[]");
+        givenPullRequestsScan("[" + pullRequest(13, "patch", "def") + "]");
+        Assert.assertEquals(13, repository.getPullRequestFor(GIT_HUB_URL, "patch", "def").getNumber());
+
+        givenPullRequestsScan("[" + pullRequest(13, "patch", "xyz") + "]");
+        Assert.assertEquals(13, repository.getPullRequestFor(GIT_HUB_URL, "patch", "xyz").getNumber());
+    }
+
+    @Test
+    public void dontScanForksWhenOwnerBranchHasPullRequestWithOtherHead() {
+        givenPullRequestsByHead("user:feature", "[" + pullRequest(12, "feature", "newer") + "]");
+
+        try {
+            repository.getPullRequestFor(GIT_HUB_URL, "feature", "abc");
+            Assert.fail("pull request should not be found");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("No PR found"));
+        }
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo(REPO_PATH + "/pulls")).withQueryParam("sort", equalTo("updated")));
+    }
+
+    private static void givenPullRequestsByHead(final String head, final String json) {
+        wireMockRule.stubFor(get(urlPathEqualTo(REPO_PATH + "/pulls"))
+                .withQueryParam("head", equalTo(head))
+                .willReturn(okJson(json)));
+    }
+
+    private static void givenPullRequestsScan(final String json) {
+        wireMockRule.stubFor(get(urlPathEqualTo(REPO_PATH + "/pulls"))
+                .withQueryParam("sort", equalTo("updated"))
+                .willReturn(okJson(json)));
+    }
+
+    private static void givenJson(final String path, final String json) {
+        wireMockRule.stubFor(get(urlPathEqualTo(path)).willReturn(okJson(json)));
+    }
+
+    private static void givenCommentUpdate(final int id, final String login, final String body, final String job) {
+        wireMockRule.stubFor(any(urlPathEqualTo(REPO_PATH + "/issues/comments/" + id))
+                .willReturn(okJson(comment(id, login, body, job))));
+    }
+
+    private static String pullRequest(final int number, final String branch, final String sha) {
+        return "{\"id\":" + (100 + number) + ",\"number\":" + number + ",\"state\":\"open\"," +
+                "\"url\":\"http://localhost:" + wireMockRule.port() + REPO_PATH + "/pulls/" + number + "\"," +
+                "\"updated_at\":\"2026-10-18T10:00:00Z\"," +
+                "\"head\":{\"ref\":\"" + branch + "\",\"sha\":\"" + sha + "\"}}";
+    }
+
+    private static String comment(final int id, final String login, final String body, final String job) {
+        return "{\"id\":" + id + ",\"user\":{\"login\":\"" + login + "\",\"id\":" + (10 + id) + "}," +
+                "\"body\":\"" + body + "\\n" + GitHubPullRequestRepository.getCommentMarker(job) + "\"}";
+    }
+
+}
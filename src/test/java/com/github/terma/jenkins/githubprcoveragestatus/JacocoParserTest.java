@@ -54,6 +54,15 @@ public class JacocoParserTest {
         Assert.assertEquals(0.22, new JacocoParser("random").get(filePath), 0.1);
     }
 
+    @Test
+    public void extractReportLevelCounterIgnoringPackageLevelCounters() {
+        String filePath = JacocoParserTest.class.getResource(
+                "/com/github/terma/jenkins/githubprcoveragestatus/JacocoParserTest/jacoco.xml").getFile();
+
+        Assert.assertEquals(20f / 69, new JacocoParser("method").get(filePath), 0.001);
+        Assert.assertEquals(8f / 15, new JacocoParser("CLASS").get(filePath), 0.001);
+    }
+
     @Test
     public void throwExceptionWhenExtractCoverageFromJacocoAndNoLineTag() {
         String filePath = JacocoParserTest.class.getResource(
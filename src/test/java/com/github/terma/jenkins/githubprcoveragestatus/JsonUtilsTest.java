@@ -3,6 +3,10 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 import com.github.terma.jenkins.githubprcoveragestatus.JsonUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.number.IsCloseTo.closeTo;
@@ -16,5 +20,21 @@ public class JsonUtilsTest {
         assertThat(extractedValue, is(closeTo(85.6543, 0.00001)));
     }
 
+    @Test
+    public void streamsJsonValueByFieldNamesSkippingOtherFields() throws IOException {
+        Double extractedValue = JsonUtils.findNumberInJson(new ByteArrayInputStream((
+                "{\"files\":[{\"covered_percent\":10,\"coverage\":[1,null,0]}]," +
+                        "\"metrics\":{\"coverage\":[1,2],\"covered_percent\":85.6543}}"
+        ).getBytes(StandardCharsets.UTF_8)), "metrics", "covered_percent");
+        assertThat(extractedValue, is(closeTo(85.6543, 0.00001)));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsStreamingBrokenJsonEvenIfValueFound() throws IOException {
+        JsonUtils.findNumberInJson(new ByteArrayInputStream(
+                "{\"metrics\":{\"covered_percent\":85.6543}".getBytes(StandardCharsets.UTF_8)),
+                "metrics", "covered_percent");
+    }
+
 
 }
\ No newline at end of file
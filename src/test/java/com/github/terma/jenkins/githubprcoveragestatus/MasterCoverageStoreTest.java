@@ -0,0 +1,158 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class MasterCoverageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void returnNullIfRepositoryNotRecorded() {
+        Assert.assertNull(new MasterCoverageStore(folder.getRoot()).get("https://github.com/a/b"));
+    }
+
+    @Test
+    public void loadRecordedCoverage() {
+        MasterCoverageStore store = new MasterCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", 0.5f);
+        store.set("https://github.com/a/c", 0.7f);
+        store.set("https://github.com/a/b", 0.6f);
+
+        MasterCoverageStore loaded = new MasterCoverageStore(folder.getRoot());
+        Assert.assertEquals(0.6f, loaded.get("https://github.com/a/b"), 0);
+        Assert.assertEquals(0.7f, loaded.get("https://github.com/a/c"), 0);
+        Assert.assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void skipLinePartiallyWrittenOnCrash() throws Exception {
+        MasterCoverageStore store = new MasterCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", 0.5f);
+        store.set("https://github.com/a/b", 0.75f);
+        // crash while writing "0.75\n"
+        for (File file : folder.getRoot().listFiles()) {
+            if (file.length() == 0) continue;
+            try (RandomAccessFile shard = new RandomAccessFile(file, "rw")) {
+                shard.setLength(file.length() - 2);
+            }
+        }
+
+        MasterCoverageStore loaded = new MasterCoverageStore(folder.getRoot());
+        Assert.assertEquals(0.5f, loaded.get("https://github.com/a/b"), 0);
+
+        loaded.set("https://github.com/a/b", 0.8f);
+        MasterCoverageStore reloaded = new MasterCoverageStore(folder.getRoot());
+        Assert.assertEquals(0.8f, reloaded.get("https://github.com/a/b"), 0);
+        Assert.assertEquals(1, reloaded.size());
+    }
+
+    @Test
+    public void keepLatestCoverageAfterCompaction() {
+        MasterCoverageStore store = new MasterCoverageStore(folder.getRoot());
+        for (int i = 0; i < 1000; i++) {
+            store.set("https://github.com/a/b", i / 1000f);
+            store.set("https://github.com/a/c" + (i % 10), i / 1000f);
+        }
+
+        MasterCoverageStore loaded = new MasterCoverageStore(folder.getRoot());
+        Assert.assertEquals(0.999f, loaded.get("https://github.com/a/b"), 0);
+        Assert.assertEquals(0.999f, loaded.get("https://github.com/a/c9"), 0);
+        Assert.assertEquals(0.99f, loaded.get("https://github.com/a/c0"), 0);
+        Assert.assertEquals(11, loaded.size());
+
+        long storedBytes = 0;
+        for (File file : folder.getRoot().listFiles()) storedBytes += file.length();
+        Assert.assertTrue("compacted " + storedBytes, storedBytes < 100 * 1000);
+    }
+
+    @Test
+    public void migrateLegacyCoverageWithoutOverridingRecorded() {
+        MasterCoverageStore store = new MasterCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", 0.5f);
+
+        Map<String, Float> legacy = new HashMap<>();
+        legacy.put("https://github.com/a/b", 0.1f);
+        legacy.put("https://github.com/a/c", 0.2f);
+        store.migrate(legacy);
+
+        MasterCoverageStore loaded = new MasterCoverageStore(folder.getRoot());
+        Assert.assertEquals(0.5f, loaded.get("https://github.com/a/b"), 0);
+        Assert.assertEquals(0.2f, loaded.get("https://github.com/a/c"), 0);
+    }
+
+    @Test
+    public void collectUpdatesTillFlush() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            MasterCoverageStore store = new MasterCoverageStore(folder.getRoot(), executor);
+            store.setFlushDelay(60000);
+            store.set("https://github.com/a/b", 0.5f);
+            store.set("https://github.com/a/b", 0.6f);
+            store.set("https://github.com/a/c", 0.7f);
+
+            Assert.assertEquals(0.6f, store.get("https://github.com/a/b"), 0);
+            Assert.assertEquals(2, store.getPendingUpdates());
+            Assert.assertNull(new MasterCoverageStore(folder.getRoot()).get("https://github.com/a/b"));
+
+            store.flush();
+
+            Assert.assertEquals(0, store.getPendingUpdates());
+            MasterCoverageStore loaded = new MasterCoverageStore(folder.getRoot());
+            Assert.assertEquals(0.6f, loaded.get("https://github.com/a/b"), 0);
+            Assert.assertEquals(0.7f, loaded.get("https://github.com/a/c"), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keepUpdatesOfFailedWriteTillNextFlush() throws Exception {
+        File dir = folder.newFile("store");
+        MasterCoverageStore store = new MasterCoverageStore(dir);
+
+        try {
+            store.set("https://github.com/a/b", 0.5f);
+            Assert.fail("write to file instead of directory should fail");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, store.getPendingUpdates());
+        Assert.assertEquals(0.5f, store.get("https://github.com/a/b"), 0);
+
+        Assert.assertTrue(dir.delete());
+        store.flush();
+
+        Assert.assertEquals(0, store.getPendingUpdates());
+        Assert.assertEquals(0.5f, new MasterCoverageStore(dir).get("https://github.com/a/b"), 0);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class MasterModuleCoverageStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, CoverageCounters> modules(float coverageOfB) {
+        Map<String, CoverageCounters> modules = new HashMap<>();
+        modules.put("module-b", new CoverageCounters(coverageOfB, 1, 1));
+        modules.put("module-a", CoverageCounters.of(3, 1));
+        modules.put(".", CoverageCounters.ofCoverage(0.1f));
+        return modules;
+    }
+
+    @Test
+    public void returnNullIfRepositoryNotRecorded() {
+        Assert.assertNull(new MasterModuleCoverageStore(folder.getRoot()).get("https://github.com/a/b"));
+    }
+
+    @Test
+    public void loadRecordedModulesOnFirstUse() {
+        MasterModuleCoverageStore store = new MasterModuleCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", modules(0.5f));
+        store.set("https://github.com/a/c", modules(0.7f));
+
+        MasterModuleCoverageStore.Modules loaded = new MasterModuleCoverageStore(folder.getRoot()).get("https://github.com/a/b");
+        Assert.assertEquals(3, loaded.size());
+        Assert.assertEquals(0.5f, loaded.get("module-b").getCoverage(), 0);
+        Assert.assertEquals(3, loaded.get("module-a").getCovered());
+        Assert.assertEquals(1, loaded.get("module-a").getMissed());
+        Assert.assertFalse(loaded.get(".").hasCounters());
+        Assert.assertNull(loaded.get("module-c"));
+        Assert.assertEquals(0.7f, new MasterModuleCoverageStore(folder.getRoot())
+                .get("https://github.com/a/c").get("module-b").getCoverage(), 0);
+    }
+
+    @Test
+    public void returnCoverageByModuleInOrderOfModules() {
+        MasterModuleCoverageStore store = new MasterModuleCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", modules(0.5f));
+
+        Map<String, Float> coverage = store.get("https://github.com/a/b").getCoverageByModule();
+
+        Assert.assertEquals("{.=0.1, module-a=0.75, module-b=0.5}", coverage.toString());
+    }
+
+    @Test
+    public void overrideRecordedModules() {
+        MasterModuleCoverageStore store = new MasterModuleCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", modules(0.5f));
+        store.set("https://github.com/a/b", modules(0.6f));
+
+        Assert.assertEquals(0.6f, store.get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+        Assert.assertEquals(0.6f, new MasterModuleCoverageStore(folder.getRoot())
+                .get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+        Assert.assertEquals(1, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void shareModuleNamesBetweenRepositories() {
+        MasterModuleCoverageStore store = new MasterModuleCoverageStore(folder.getRoot());
+        store.set("https://github.com/a/b", modules(0.5f));
+        store.set("https://github.com/a/c", modules(0.5f));
+
+        MasterModuleCoverageStore loaded = new MasterModuleCoverageStore(folder.getRoot());
+        String b = loaded.get("https://github.com/a/b").getCoverageByModule().keySet().iterator().next();
+        String c = loaded.get("https://github.com/a/c").getCoverageByModule().keySet().iterator().next();
+        Assert.assertSame(b, c);
+    }
+
+    @Test
+    public void ignoreBrokenFile() throws IOException {
+        new MasterModuleCoverageStore(folder.getRoot()).set("https://github.com/a/b", modules(0.5f));
+        for (File file : folder.getRoot().listFiles()) FileUtils.write(file, "broken");
+
+        Assert.assertNull(new MasterModuleCoverageStore(folder.getRoot()).get("https://github.com/a/b"));
+    }
+
+    @Test
+    public void collectModulesTillFlush() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            MasterModuleCoverageStore store = new MasterModuleCoverageStore(folder.getRoot(), executor);
+            store.setFlushDelay(60000);
+            store.set("https://github.com/a/b", modules(0.5f));
+            store.set("https://github.com/a/b", modules(0.6f));
+
+            Assert.assertEquals(0.6f, store.get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+            Assert.assertEquals(1, store.getPendingUpdates());
+            Assert.assertNull(new MasterModuleCoverageStore(folder.getRoot()).get("https://github.com/a/b"));
+
+            store.flush();
+
+            Assert.assertEquals(0, store.getPendingUpdates());
+            Assert.assertEquals(0.6f, new MasterModuleCoverageStore(folder.getRoot())
+                    .get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keepModulesOfFailedWriteWithoutFailing() throws IOException {
+        File dir = folder.newFile("store");
+        MasterModuleCoverageStore store = new MasterModuleCoverageStore(dir);
+
+        store.set("https://github.com/a/b", modules(0.5f));
+
+        Assert.assertEquals(1, store.getPendingUpdates());
+        Assert.assertEquals(0.5f, store.get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+
+        Assert.assertTrue(dir.delete());
+        store.flush();
+
+        Assert.assertEquals(0, store.getPendingUpdates());
+        Assert.assertEquals(0.5f, new MasterModuleCoverageStore(dir)
+                .get("https://github.com/a/b").get("module-b").getCoverage(), 0);
+    }
+
+}
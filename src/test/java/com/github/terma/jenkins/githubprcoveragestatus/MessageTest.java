@@ -20,6 +20,10 @@ package com.github.terma.jenkins.githubprcoveragestatus;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class MessageTest {
 
     @Test
@@ -95,4 +99,72 @@ public class MessageTest {
                 new Message(0.7f, 0.5f).forComment(buildUrl, jenkinsUrl, 0, 0, false));
     }
 
+    @Test
+    public void forCommentWithModulesSortedByChange() {
+        Map<String, Float> modules = new LinkedHashMap<>();
+        modules.put("a", 0.5f);
+        modules.put("b", 0.9f);
+        modules.put("c", 0.7f);
+        modules.put("new", 0.1f);
+        Map<String, Float> masterModules = new HashMap<>();
+        masterModules.put("a", 0.6f);
+        masterModules.put("b", 0.6f);
+        masterModules.put("c", 0.7f);
+
+        Assert.assertEquals(
+                "[![70% (0.0%) vs master 70%](jenkinsUrl/coverage-status-icon/?coverage=0.7&masterCoverage=0.7)](buildUrl)\n\n" +
+                        "| Module | Coverage | Change vs master |\n" +
+                        "| --- | --- | --- |\n" +
+                        "| b | 90% | +30.0% |\n" +
+                        "| a | 50% | -10.0% |",
+                new Message(0.7f, 0.7f, modules, masterModules).forComment("buildUrl", "jenkinsUrl", 0, 0, false));
+    }
+
+    @Test
+    public void forCommentWithTopModulesOnly() {
+        Map<String, Float> modules = new HashMap<>();
+        Map<String, Float> masterModules = new HashMap<>();
+        for (int i = 1; i <= Message.TOP_MODULES + 2; i++) {
+            modules.put("m" + i, 0.5f + i / 100f);
+            masterModules.put("m" + i, 0.5f);
+        }
+
+        String comment = new Message(0.5f, 0.5f, modules, masterModules).forComment("buildUrl", "jenkinsUrl", 0, 0, false);
+
+        Assert.assertTrue(comment.contains("| m12 | 62% | +12.0% |"));
+        Assert.assertFalse(comment.contains("| m1 |"));
+        Assert.assertTrue(comment.endsWith("\n\nOther changed modules: 2"));
+    }
+
+    @Test
+    public void forCommentWithoutModulesIfNothingChanged() {
+        Map<String, Float> modules = new HashMap<>();
+        modules.put("a", 0.5f);
+
+        Assert.assertEquals(new Message(0.5f, 0.5f).forComment("buildUrl", "jenkinsUrl", 0, 0, false),
+                new Message(0.5f, 0.5f, modules, modules).forComment("buildUrl", "jenkinsUrl", 0, 0, false));
+    }
+
+    @Test
+    public void forCommentWithoutModulesIfOnlyRootModule() {
+        Map<String, Float> modules = new HashMap<>();
+        modules.put(CoverageSummary.ROOT_MODULE, 0.7f);
+        Map<String, Float> masterModules = new HashMap<>();
+        masterModules.put(CoverageSummary.ROOT_MODULE, 0.5f);
+
+        Assert.assertEquals(new Message(0.7f, 0.5f).forComment("buildUrl", "jenkinsUrl", 0, 0, false),
+                new Message(0.7f, 0.5f, modules, masterModules).forComment("buildUrl", "jenkinsUrl", 0, 0, false));
+    }
+
+    @Test
+    public void forCommentWithoutModulesIfOnlyOneModule() {
+        Map<String, Float> modules = new HashMap<>();
+        modules.put("backend", 0.7f);
+        Map<String, Float> masterModules = new HashMap<>();
+        masterModules.put("backend", 0.5f);
+
+        Assert.assertEquals(new Message(0.7f, 0.5f).forComment("buildUrl", "jenkinsUrl", 0, 0, false),
+                new Message(0.7f, 0.5f, modules, masterModules).forComment("buildUrl", "jenkinsUrl", 0, 0, false));
+    }
+
 }
@@ -0,0 +1,275 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PublicationQueueTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> published = new ArrayList<>();
+    private final List<String> superseded = new ArrayList<>();
+
+    private final Executor workers = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    @Test
+    public void publishInOrderOfAddingByOneWorkerPerKey() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo-a", publication("a1", 0));
+        queue.add("repo-a", publication("a2", 0));
+        queue.add("repo-b", publication("b1", 0));
+
+        Assert.assertEquals(2, tasks.size());
+        Assert.assertEquals(3, queue.size());
+
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("a1", "a2", "b1"), published);
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void retryFailedPublication() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo", publication("first", 2));
+        queue.add("repo", publication("second", 0));
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("first", "second"), published);
+    }
+
+    @Test
+    public void dropPublicationAfterMaxAttemptsAndContinueWithNext() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo", publication("first", 3));
+        queue.add("repo", publication("second", 0));
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("second"), published);
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void startNewWorkerWhenPreviousFinished() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo", publication("first", 0));
+        runTasks();
+        queue.add("repo", publication("second", 0));
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("first", "second"), published);
+    }
+
+    @Test
+    public void skipWaitingPublicationWhenNewerAddedForSameTarget() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo", publication("build-1", "pr-1", 1, 0));
+        queue.add("repo", publication("build-2", "pr-1", 2, 0));
+        queue.add("repo", publication("other-pr", "pr-2", 1, 0));
+        queue.add("repo", publication("build-3", "pr-1", 3, 0));
+        Assert.assertEquals(3, queue.size());
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("other-pr", "build-3"), published);
+        Assert.assertEquals(Arrays.asList("build-2", "build-1"), superseded);
+    }
+
+    @Test
+    public void ignorePublicationOlderThanAlreadyAdded() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        Assert.assertTrue(queue.add("repo", publication("build-2", "pr-1", 2, 0)));
+        runTasks();
+        Assert.assertFalse(queue.add("repo", publication("build-1", "pr-1", 1, 0)));
+        Assert.assertTrue(queue.add("repo", publication("build-2-rebuild", "pr-1", 2, 0)));
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("build-2", "build-2-rebuild"), published);
+        Assert.assertEquals(0, superseded.size());
+    }
+
+    @Test
+    public void continueWithNextPublicationAfterUnexpectedError() {
+        PublicationQueue queue = new PublicationQueue(workers, 3, 0);
+
+        queue.add("repo", new PublicationQueue.Publication() {
+            @Override
+            public String getDescription() {
+                return "broken";
+            }
+
+            @Override
+            public String getTarget() {
+                return "broken";
+            }
+
+            @Override
+            public long getVersion() {
+                return 0;
+            }
+
+            @Override
+            public void publish() {
+                throw new AssertionError("unexpected");
+            }
+
+            @Override
+            public void superseded() {
+            }
+        });
+        queue.add("repo", publication("next", 0));
+        try {
+            tasks.remove(0).run();
+            Assert.fail("error should be propagated to worker");
+        } catch (AssertionError e) {
+            Assert.assertEquals("unexpected", e.getMessage());
+        }
+        runTasks();
+
+        Assert.assertEquals(Arrays.asList("next"), published);
+        Assert.assertEquals(0, queue.size());
+
+        queue.add("repo", publication("later", 0));
+        runTasks();
+        Assert.assertEquals(Arrays.asList("next", "later"), published);
+    }
+
+    @Test
+    public void addWhileWorkerFinishesQueue() throws Exception {
+        final int keys = 4;
+        final int publications = 20000;
+        final ExecutorService executor = Executors.newFixedThreadPool(keys * 2);
+        try {
+            final PublicationQueue queue = new PublicationQueue(executor, 1, 0);
+            final List<Future<Integer>> adders = new ArrayList<>();
+            for (int k = 0; k < keys; k++) {
+                final String key = "repo-" + k;
+                adders.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        final AtomicInteger publishedCount = new AtomicInteger();
+                        for (int i = 0; i < publications; i++) {
+                            // distinct targets, nothing is superseded
+                            queue.add(key, countedPublication(key + "-" + i, publishedCount));
+                            // next publication is added right when worker finishes queue
+                            while (publishedCount.get() <= i) Thread.yield();
+                        }
+                        return publishedCount.get();
+                    }
+                }));
+            }
+            for (Future<Integer> adder : adders) Assert.assertEquals(publications, (int) adder.get(1, TimeUnit.MINUTES));
+            Assert.assertEquals(0, queue.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PublicationQueue.Publication countedPublication(final String name, final AtomicInteger counter) {
+        return new PublicationQueue.Publication() {
+            @Override
+            public String getDescription() {
+                return name;
+            }
+
+            @Override
+            public String getTarget() {
+                return name;
+            }
+
+            @Override
+            public long getVersion() {
+                return 0;
+            }
+
+            @Override
+            public void publish() {
+                counter.incrementAndGet();
+            }
+
+            @Override
+            public void superseded() {
+            }
+        };
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) tasks.remove(0).run();
+    }
+
+    private PublicationQueue.Publication publication(final String name, final int failures) {
+        return publication(name, name, 0, failures);
+    }
+
+    private PublicationQueue.Publication publication(
+            final String name, final String target, final long version, final int failures) {
+        return new PublicationQueue.Publication() {
+            private int attempts;
+
+            @Override
+            public String getDescription() {
+                return name;
+            }
+
+            @Override
+            public String getTarget() {
+                return target;
+            }
+
+            @Override
+            public long getVersion() {
+                return version;
+            }
+
+            @Override
+            public void publish() {
+                attempts++;
+                if (attempts <= failures) throw new IllegalStateException("GitHub is not available");
+                published.add(name);
+            }
+
+            @Override
+            public void superseded() {
+                superseded.add(name);
+            }
+        };
+    }
+
+}
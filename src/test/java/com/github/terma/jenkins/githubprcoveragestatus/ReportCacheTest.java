@@ -0,0 +1,146 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ReportCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheDir;
+    private File report;
+
+    @Before
+    public void prepareReport() throws IOException {
+        cacheDir = folder.newFolder("ws@tmp");
+        report = folder.newFile("jacoco.xml");
+        FileUtils.write(report, "<report/>");
+    }
+
+    @Test
+    public void returnNullIfReportNotCached() {
+        Assert.assertNull(ReportCache.load(cacheDir).get(report, "LINE"));
+    }
+
+    @Test
+    public void returnCoverageStoredByPreviousRun() {
+        ReportCache cache = ReportCache.load(cacheDir);
+        cache.put(report, "LINE", CoverageCounters.of(3, 1));
+        cache.save();
+
+        CoverageCounters counters = ReportCache.load(cacheDir).get(report, "LINE");
+        Assert.assertEquals(0.75f, counters.getCoverage(), 0);
+        Assert.assertEquals(3, counters.getCovered());
+        Assert.assertEquals(1, counters.getMissed());
+        Assert.assertNull(ReportCache.load(cacheDir).get(report, "BRANCH"));
+    }
+
+    @Test
+    public void returnCoverageIfOnlyModificationTimeChangedAndDigestKnown() {
+        ReportCache cache = ReportCache.load(cacheDir);
+        cache.put(report, "LINE", CoverageCounters.of(3, 1));
+        cache.save();
+
+        // digest is not calculated for fresh report, so first change of modification time is a miss
+        Assert.assertTrue(report.setLastModified(report.lastModified() - 60000));
+        cache = ReportCache.load(cacheDir);
+        Assert.assertNull(cache.get(report, "LINE"));
+        cache.put(report, "LINE", CoverageCounters.of(3, 1));
+        cache.save();
+
+        Assert.assertTrue(report.setLastModified(report.lastModified() - 60000));
+
+        Assert.assertEquals(0.75f, ReportCache.load(cacheDir).get(report, "LINE").getCoverage(), 0);
+    }
+
+    @Test
+    public void keepEntriesOfOtherRunsOnSameWorkspace() throws IOException {
+        File otherReport = folder.newFile("cobertura.xml");
+        FileUtils.write(otherReport, "<coverage/>");
+        ReportCache run = ReportCache.load(cacheDir);
+        ReportCache otherRun = ReportCache.load(cacheDir);
+
+        run.put(report, "LINE", CoverageCounters.of(3, 1));
+        run.save();
+        otherRun.put(report, "BRANCH", CoverageCounters.of(1, 1));
+        otherRun.put(otherReport, "LINE", CoverageCounters.of(1, 3));
+        otherRun.save();
+
+        ReportCache cache = ReportCache.load(cacheDir);
+        Assert.assertEquals(0.75f, cache.get(report, "LINE").getCoverage(), 0);
+        Assert.assertEquals(0.5f, cache.get(report, "BRANCH").getCoverage(), 0);
+        Assert.assertEquals(0.25f, cache.get(otherReport, "LINE").getCoverage(), 0);
+    }
+
+    @Test
+    public void dropEntriesOfDisappearedReports() throws IOException {
+        File otherReport = folder.newFile("cobertura.xml");
+        FileUtils.write(otherReport, "<coverage/>");
+        ReportCache cache = ReportCache.load(cacheDir);
+        cache.put(report, "LINE", CoverageCounters.of(3, 1));
+        cache.put(otherReport, "LINE", CoverageCounters.of(1, 3));
+        cache.save();
+
+        Assert.assertTrue(otherReport.delete());
+        ReportCache.load(cacheDir).save();
+
+        String stored = FileUtils.readFileToString(
+                new File(new File(cacheDir, ReportCache.CACHE_DIR), ReportCache.CACHE_FILE), "UTF-8");
+        Assert.assertTrue(stored.contains("jacoco.xml"));
+        Assert.assertFalse(stored.contains("cobertura.xml"));
+    }
+
+    @Test
+    public void returnNullIfReportChanged() throws IOException {
+        ReportCache cache = ReportCache.load(cacheDir);
+        cache.put(report, "LINE", CoverageCounters.of(3, 1));
+        cache.save();
+
+        FileUtils.write(report, "<report></report>");
+
+        Assert.assertNull(ReportCache.load(cacheDir).get(report, "LINE"));
+    }
+
+    @Test
+    public void ignoreBrokenCacheFile() throws IOException {
+        FileUtils.write(new File(new File(cacheDir, ReportCache.CACHE_DIR), ReportCache.CACHE_FILE),
+                report.getAbsolutePath() + ";LINE=broken");
+
+        Assert.assertNull(ReportCache.load(cacheDir).get(report, "LINE"));
+    }
+
+    @Test
+    public void ignoreEntryWithoutCounters() throws IOException {
+        FileUtils.write(new File(new File(cacheDir, ReportCache.CACHE_DIR), ReportCache.CACHE_FILE),
+                (report.getAbsolutePath() + ";LINE").replace("\\", "\\\\").replace(":", "\\:")
+                        + "=" + report.length() + ";" + report.lastModified() + ";digest;0.75");
+
+        Assert.assertNull(ReportCache.load(cacheDir).get(report, "LINE"));
+    }
+
+}
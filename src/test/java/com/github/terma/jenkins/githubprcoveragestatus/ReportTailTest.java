@@ -0,0 +1,73 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class ReportTailTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void removeEmptyElementsFromEnd() throws IOException {
+        ReportTail tail = ReportTail.read(write("<report><package><counter type=\"A\"/></package>" +
+                "<counter type=\"B\" missed='1'/>\n  <counter type=\"C\"/>\n</report>\n"));
+
+        Assert.assertTrue(tail.removeEnd("report"));
+        Assert.assertEquals(Arrays.asList("<counter type=\"B\" missed='1'/>", "<counter type=\"C\"/>"),
+                tail.removeEmptyElements("counter"));
+        Assert.assertFalse(tail.removeEnd("report"));
+        Assert.assertTrue(tail.removeEnd("package"));
+    }
+
+    @Test
+    public void removeNothingIfTailStartsInTheMiddleOfElements() throws IOException {
+        StringBuilder report = new StringBuilder("<report>");
+        while (report.length() < ReportTail.TAIL_SIZE * 2) report.append("<counter type=\"A\"/>");
+        report.append("</report>");
+        ReportTail tail = ReportTail.read(write(report.toString()));
+
+        Assert.assertTrue(tail.removeEnd("report"));
+        Assert.assertEquals(Collections.emptyList(), tail.removeEmptyElements("counter"));
+    }
+
+    @Test
+    public void getAttribute() {
+        Assert.assertEquals("12", ReportTail.getAttribute("<counter type=\"LINE\" missed='12'/>", "missed"));
+        Assert.assertEquals("LINE", ReportTail.getAttribute("<counter type = \"LINE\"/>", "type"));
+        Assert.assertNull(ReportTail.getAttribute("<counter type=\"LINE\" notmissed=\"1\"/>", "missed"));
+    }
+
+    private String write(String content) throws IOException {
+        File file = temporaryFolder.newFile();
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+        return file.getPath();
+    }
+
+}
@@ -24,6 +24,17 @@ public class SimpleCovParserTest {
 
     }
 
+    @Test
+    public void countersAreLines() {
+        String filePath = SimpleCovParserTest.class.getResource(
+                "/com/github/terma/jenkins/githubprcoveragestatus/SimpleCovParserTest/coverage.json").getFile();
+
+        CoverageCounters counters = new SimpleCovParser().getCounters(filePath);
+
+        assertThat(counters.getCovered(), is(6L));
+        assertThat(counters.getMissed(), is(1L));
+    }
+
     @Test
     public void errorsReadingNoExistantFile() {
         try {
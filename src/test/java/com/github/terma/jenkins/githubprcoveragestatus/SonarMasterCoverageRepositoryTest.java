@@ -4,12 +4,21 @@ import com.github.tomakehurst.wiremock.client.MappingBuilder;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
+import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
@@ -27,6 +36,11 @@ public class SonarMasterCoverageRepositoryTest {
     private SonarMasterCoverageRepository sonarMasterCoverageRepository;
     private ByteArrayOutputStream buildLogOutputStream;
 
+    @Before
+    public void beforeTest() {
+        SonarMasterCoverageRepository.clearCache();
+    }
+
     @After
     public void afterTest() {
         System.out.println(buildLogOutputStream.toString());
@@ -50,6 +64,161 @@ public class SonarMasterCoverageRepositoryTest {
         assertThat(coverage, is(0.953f));
     }
 
+    @Test
+    public void should_get_cached_coverage_for_next_builds() throws IOException {
+        givenCoverageRepository(null, null);
+        givenProjectResponseWithSingleMatch(null, null);
+        givenMeasureResponse();
+        wireMockRule.resetRequests();
+
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+        givenCoverageRepository(null, null);
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/projects/index")));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/measures/component")));
+    }
+
+    @Test
+    public void should_get_coverage_once_for_concurrent_builds() throws Exception {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/measures/component"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(500)
+                        .withBody(getResponseBodyFromFile("measureFound.json"))
+                )
+        );
+        wireMockRule.resetRequests();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Float>> coverages = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                coverages.add(executor.submit(new Callable<Float>() {
+                    @Override
+                    public Float call() {
+                        return sonarMasterCoverageRepository.get(GIT_REPO_URL);
+                    }
+                }));
+            }
+            for (Future<Float> coverage : coverages) assertThat(coverage.get(), is(0.953f));
+        } finally {
+            executor.shutdown();
+        }
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/measures/component")));
+    }
+
+    @Test
+    public void should_not_share_cached_coverage_between_different_passwords() throws IOException {
+        givenCoverageRepository("login", "password");
+        givenProjectResponseWithSingleMatch("login", "password");
+        givenMeasureResponse();
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+        wireMockRule.resetRequests();
+
+        givenCoverageRepository("login", "wrong");
+        sonarMasterCoverageRepository.get(GIT_REPO_URL);
+
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/projects/index")));
+    }
+
+    @Test
+    public void should_get_coverage_by_stored_project_key_without_search() throws IOException {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        givenMeasureResponse();
+        wireMockRule.resetRequests();
+
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/projects/index")));
+    }
+
+    @Test
+    public void should_search_project_again_when_stored_project_key_is_outdated() throws IOException {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-old-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        givenProjectResponseWithSingleMatch(null, null);
+        givenMeasureResponse();
+
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+        assertThat(projectKeys.get("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME), is("my-project:origin/master"));
+    }
+
+    @Test
+    public void should_keep_stored_project_key_when_sonar_fails() {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/measures/component"))
+                .willReturn(aResponse().withStatus(503)));
+        wireMockRule.resetRequests();
+
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0f));
+
+        assertThat(projectKeys.get("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME), is("my-project:origin/master"));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/projects/index")));
+    }
+
+    @Test
+    public void should_get_coverage_of_many_repositories_by_one_request() {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        projectKeys.put("http://localhost:" + wireMockRule.port(), "other-project", "other-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        givenMeasuresSearchResponse("my-project:origin/master,other-project:origin/master",
+                "{\"measures\":[" +
+                        "{\"metric\":\"coverage\",\"value\":\"95.3\",\"component\":\"my-project:origin/master\"}," +
+                        "{\"metric\":\"coverage\",\"value\":\"40.0\",\"component\":\"other-project:origin/master\"}]}");
+        wireMockRule.resetRequests();
+
+        final Map<String, Float> coverages = sonarMasterCoverageRepository.get(
+                Arrays.asList(GIT_REPO_URL, "http://test.com/user/other-project"));
+
+        assertThat(coverages.get(GIT_REPO_URL), is(0.953f));
+        assertThat(coverages.get("http://test.com/user/other-project"), is(0.4f));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/measures/search")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/measures/component")));
+    }
+
+    @Test
+    public void should_refresh_coverage_of_recently_requested_repositories() throws IOException {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        givenGlobalCoverageRepository(projectKeys);
+        givenMeasureResponse();
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+
+        givenMeasuresSearchResponse("my-project:origin/master",
+                "{\"measures\":[{\"metric\":\"coverage\",\"value\":\"50.0\",\"component\":\"my-project:origin/master\"}]}");
+        sonarMasterCoverageRepository.refreshHotRepositories();
+
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.5f));
+    }
+
+    @Test
+    public void should_not_refresh_repositories_requested_by_job_credentials() throws IOException {
+        final SonarProjectKeyStore projectKeys = new SonarProjectKeyStore(null);
+        projectKeys.put("http://localhost:" + wireMockRule.port(), GIT_REPO_NAME, "my-project:origin/master");
+        givenCoverageRepository(projectKeys);
+        givenMeasureResponse();
+        assertThat(sonarMasterCoverageRepository.get(GIT_REPO_URL), is(0.953f));
+        givenMeasuresSearchResponse("my-project:origin/master",
+                "{\"measures\":[{\"metric\":\"coverage\",\"value\":\"50.0\",\"component\":\"my-project:origin/master\"}]}");
+        wireMockRule.resetRequests();
+
+        givenGlobalCoverageRepository(projectKeys);
+        sonarMasterCoverageRepository.refreshHotRepositories();
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/measures/search")));
+    }
+
     @Test
     public void should_get_coverage_for_multiple_projects_found() throws IOException {
         givenCoverageRepository(null, null);
@@ -86,6 +255,18 @@ public class SonarMasterCoverageRepositoryTest {
                 login, password, new PrintStream(buildLogOutputStream, true));
     }
 
+    private void givenCoverageRepository(final SonarProjectKeyStore projectKeys) {
+        buildLogOutputStream = new ByteArrayOutputStream();
+        sonarMasterCoverageRepository = new SonarMasterCoverageRepository("http://localhost:" + wireMockRule.port(),
+                null, null, new PrintStream(buildLogOutputStream, true), projectKeys);
+    }
+
+    private void givenGlobalCoverageRepository(final SonarProjectKeyStore projectKeys) {
+        buildLogOutputStream = new ByteArrayOutputStream();
+        sonarMasterCoverageRepository = new SonarMasterCoverageRepository("http://localhost:" + wireMockRule.port(),
+                null, null, new PrintStream(buildLogOutputStream, true), projectKeys, true);
+    }
+
     private void givenProjectResponseWithSingleMatch(final String login, String password) throws IOException {
         final MappingBuilder search = get(urlPathEqualTo("/api/projects/index"))
                 .withQueryParam("search", equalTo(GIT_REPO_NAME));
@@ -130,6 +311,17 @@ public class SonarMasterCoverageRepositoryTest {
         );
     }
 
+    private void givenMeasuresSearchResponse(final String projectKeys, final String body) {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/measures/search"))
+                .withQueryParam("projectKeys", equalTo(projectKeys))
+                .withQueryParam("metricKeys", equalTo(SonarMasterCoverageRepository.SONAR_OVERALL_LINE_COVERAGE_METRIC_NAME))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withBody(body)
+                )
+        );
+    }
+
     private void givenNotFoundMeasureResponse() throws IOException {
         wireMockRule.stubFor(get(urlPathEqualTo("/api/measures/component"))
                 .withQueryParam("componentKey", equalTo("my-project:origin/master"))
@@ -0,0 +1,79 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class SonarProjectKeyStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keepProjectKeysAfterRestart() {
+        File file = new File(temporaryFolder.getRoot(), SonarProjectKeyStore.FILE_NAME);
+        SonarProjectKeyStore store = new SonarProjectKeyStore(file);
+        store.put("http://sonar", "repo", "repo:master");
+        store.put("http://other-sonar", "repo", "other:master");
+
+        SonarProjectKeyStore restarted = new SonarProjectKeyStore(file);
+
+        Assert.assertEquals("repo:master", restarted.get("http://sonar", "repo"));
+        Assert.assertEquals("other:master", restarted.get("http://other-sonar", "repo"));
+        Assert.assertNull(restarted.get("http://sonar", "unknown"));
+    }
+
+    @Test
+    public void keepRemovedAndClearedProjectKeys() {
+        File file = new File(temporaryFolder.getRoot(), SonarProjectKeyStore.FILE_NAME);
+        SonarProjectKeyStore store = new SonarProjectKeyStore(file);
+        store.put("http://sonar", "repo", "repo:master");
+        store.put("http://sonar", "repo2", "repo2:master");
+
+        store.remove("http://sonar", "repo");
+        Assert.assertNull(new SonarProjectKeyStore(file).get("http://sonar", "repo"));
+        Assert.assertEquals(1, new SonarProjectKeyStore(file).size());
+
+        store.clear();
+        Assert.assertEquals(0, new SonarProjectKeyStore(file).size());
+    }
+
+    @Test
+    public void ignoreNullProjectKey() {
+        File file = new File(temporaryFolder.getRoot(), SonarProjectKeyStore.FILE_NAME);
+        SonarProjectKeyStore store = new SonarProjectKeyStore(file);
+        store.put("http://sonar", "repo", null);
+
+        Assert.assertNull(store.get("http://sonar", "repo"));
+        Assert.assertEquals(0, new SonarProjectKeyStore(file).size());
+    }
+
+    @Test
+    public void keepProjectKeysInMemoryWithoutFile() {
+        SonarProjectKeyStore store = new SonarProjectKeyStore(null);
+        store.put("http://sonar", "repo", "repo:master");
+
+        Assert.assertEquals("repo:master", store.get("http://sonar", "repo"));
+    }
+
+}
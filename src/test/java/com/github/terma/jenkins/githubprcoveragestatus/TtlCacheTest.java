@@ -0,0 +1,52 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TtlCacheTest {
+
+    @Test
+    public void returnValueTillExpired() {
+        TtlCache<String, String> cache = new TtlCache<>(60000, 10);
+        cache.put("a", "1");
+
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void returnNullForExpiredValue() {
+        TtlCache<String, String> cache = new TtlCache<>(-1, 10);
+        cache.put("a", "1");
+
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void neverGrowMoreThanMaxSize() {
+        TtlCache<Integer, Integer> cache = new TtlCache<>(60000, 10);
+        for (int i = 0; i < 100; i++) cache.put(i, i);
+
+        Assert.assertTrue(cache.size() <= 10);
+        Assert.assertEquals(Integer.valueOf(99), cache.get(99));
+    }
+
+}
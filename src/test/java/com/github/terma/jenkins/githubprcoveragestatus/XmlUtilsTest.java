@@ -0,0 +1,72 @@
+/*
+
+    Copyright 2015-2016 Artem Stasiuk
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+*/
+package com.github.terma.jenkins.githubprcoveragestatus;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class XmlUtilsTest {
+
+    private static final String XML = "<!DOCTYPE report SYSTEM \"report.dtd\">" +
+            "<report><counter type=\"LINE\" missed=\"1\" covered=\"3\"/></report>";
+
+    @Test
+    public void readReportWithoutLoadingDtd() throws Exception {
+        XMLStreamReader reader = XmlUtils.createStreamReader(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)));
+        // DTD event is reported, but DTD itself is not loaded
+        while (!reader.isStartElement() || !"counter".equals(reader.getLocalName())) reader.next();
+
+        Assert.assertEquals("counter", reader.getLocalName());
+        Assert.assertEquals("3", reader.getAttributeValue(null, "covered"));
+    }
+
+    @Test
+    public void readStreamsFromManyThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final String xml = "<report><counter type=\"LINE\" covered=\"" + i + "\"/></report>";
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        XMLStreamReader reader = XmlUtils.createStreamReader(
+                                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+                        reader.nextTag();
+                        reader.nextTag();
+                        return reader.getAttributeValue(null, "covered");
+                    }
+                }));
+            }
+            for (int i = 0; i < 100; i++) Assert.assertEquals(String.valueOf(i), results.get(i).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}